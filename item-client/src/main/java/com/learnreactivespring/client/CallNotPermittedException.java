@@ -0,0 +1,12 @@
+package com.learnreactivespring.client;
+
+/**
+ * Raised without calling the item service while the circuit for an endpoint
+ * is open, or half-open with all probe slots taken.
+ */
+public class CallNotPermittedException extends RuntimeException {
+
+    public CallNotPermittedException(String endpoint) {
+        super("Circuit for " + endpoint + " is open");
+    }
+}
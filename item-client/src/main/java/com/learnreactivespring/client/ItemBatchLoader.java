@@ -0,0 +1,249 @@
+package com.learnreactivespring.client;
+
+import com.learnreactivespring.domain.Item;
+import com.learnreactivespring.domain.ItemLookupResult;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.publisher.UnicastProcessor;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coalesces single item lookups into batchGet calls. Ids requested within
+ * {@code window} of each other (or until {@code max-batch-size} ids are
+ * waiting) go out as one request; a lookup for an id that is already in
+ * flight joins the pending one instead of being sent again. At most
+ * {@code concurrency} batches are in flight; later ones wait their turn.
+ */
+@Component
+@Slf4j
+public class ItemBatchLoader {
+
+    public static final MediaType APPLICATION_NDJSON = MediaType.valueOf("application/x-ndjson");
+
+    @Autowired
+    WebClient webClient;
+
+    @Autowired
+    ItemCallPolicies itemCallPolicies;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${item.client.batch.window:2ms}")
+    Duration window;
+
+    @Value("${item.client.batch.max-batch-size:100}")
+    int maxBatchSize;
+
+    @Value("${item.client.batch.concurrency:8}")
+    int concurrency;
+
+    private final Map<String, MonoProcessor<Item>> inFlight = new ConcurrentHashMap<>();
+
+    private volatile Dispatcher dispatcher;
+
+    private volatile boolean stopped;
+
+    private DistributionSummary batchSize;
+
+    private Counter coalesced;
+
+    @PostConstruct
+    public void start() {
+
+        batchSize = DistributionSummary.builder("item.client.batch.size")
+                .description("Ids sent per batchGet call")
+                .register(meterRegistry);
+        coalesced = Counter.builder("item.client.batch.coalesced")
+                .description("Lookups that joined a request already in flight")
+                .register(meterRegistry);
+
+        dispatcher = new Dispatcher();
+    }
+
+    public Mono<Item> load(String id) {
+
+        return Mono.defer(() -> {
+            MonoProcessor<Item> result = MonoProcessor.create();
+            MonoProcessor<Item> existing = inFlight.putIfAbsent(id, result);
+            if (existing != null) {
+                coalesced.increment();
+                return existing;
+            }
+            dispatcher.queue(new Lookup(id, result));
+            return result;
+        });
+    }
+
+    /**
+     * A lookup is answered through the processor it was queued with, and
+     * only removed from {@code inFlight} while that processor is still the
+     * one registered for its id, so a later lookup for the same id is never
+     * answered or dropped by an earlier batch.
+     */
+    private void complete(Lookup lookup, Item item) {
+
+        inFlight.remove(lookup.id, lookup.result);
+        if (item != null) {
+            lookup.result.onNext(item);
+        } else {
+            lookup.result.onComplete();
+        }
+    }
+
+    private void fail(Lookup lookup, Throwable ex) {
+
+        inFlight.remove(lookup.id, lookup.result);
+        lookup.result.onError(ex);
+    }
+
+    private static final class Lookup {
+
+        final String id;
+
+        final MonoProcessor<Item> result;
+
+        Lookup(String id, MonoProcessor<Item> result) {
+            this.id = id;
+            this.result = result;
+        }
+    }
+
+    /**
+     * One run of the batching pipeline, with the lookups queued on it and
+     * not answered yet.
+     * <p>
+     * bufferTimeout emits on its timer whether or not there is demand, so
+     * batches are queued in front of the bounded flatMap instead of failing
+     * with an overflow while all {@code concurrency} calls are in flight.
+     * Should the pipeline die anyway, a new dispatcher takes over and the
+     * lookups queued on the dead one, and only those, are failed, so none
+     * is left hanging.
+     */
+    private final class Dispatcher {
+
+        private final Set<Lookup> queued = ConcurrentHashMap.newKeySet();
+
+        private final FluxSink<Lookup> sink;
+
+        private final Disposable subscription;
+
+        private volatile boolean failed;
+
+        Dispatcher() {
+
+            UnicastProcessor<Lookup> lookups = UnicastProcessor.create();
+            sink = lookups.sink();
+            subscription = lookups
+                    .bufferTimeout(maxBatchSize, window)
+                    .onBackpressureBuffer()
+                    .flatMap(this::dispatch, concurrency)
+                    .subscribe(null, this::onFailure);
+        }
+
+        void queue(Lookup lookup) {
+
+            queued.add(lookup);
+            // died while this was being queued: hand it to the new dispatcher unless the sweep already failed it
+            if (failed && queued.remove(lookup)) {
+                dispatcher.queue(lookup);
+                return;
+            }
+            sink.next(lookup);
+        }
+
+        /**
+         * Results are read as NDJSON, so callers are answered as soon as the
+         * chunk holding their id is back rather than when the whole batch is.
+         */
+        private Mono<Void> dispatch(List<Lookup> batch) {
+
+            batchSize.record(batch.size());
+            Map<String, Lookup> unanswered = new LinkedHashMap<>();
+            batch.forEach(lookup -> unanswered.put(lookup.id, lookup));
+            List<String> ids = new ArrayList<>(unanswered.keySet());
+
+            return itemCallPolicies.executeMany("batch-get", true, () -> webClient.post().uri("/v1/items/batchGet")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(APPLICATION_NDJSON)
+                    .bodyValue(ids)
+                    .retrieve()
+                    .bodyToFlux(ItemLookupResult.class))
+                    .doOnNext(result -> {
+                        Lookup lookup = unanswered.remove(result.getId());
+                        if (lookup != null) {
+                            answer(lookup, result.getItem());
+                        }
+                    })
+                    .then()
+                    .doOnSuccess(done -> unanswered.values().forEach(lookup -> answer(lookup, null)))
+                    .onErrorResume(ex -> {
+                        log.warn("batchGet for {} ids failed : {}", ids.size(), ex.getMessage());
+                        unanswered.values().forEach(lookup -> {
+                            if (queued.remove(lookup)) {
+                                fail(lookup, ex);
+                            }
+                        });
+                        return Mono.empty();
+                    });
+        }
+
+        private void answer(Lookup lookup, Item item) {
+
+            if (queued.remove(lookup)) {
+                complete(lookup, item);
+            }
+        }
+
+        private void onFailure(Throwable ex) {
+
+            if (stopped) {
+                return;
+            }
+            log.error("Batch dispatcher failed, restarting it", ex);
+            dispatcher = new Dispatcher();
+            failed = true;
+            queued.forEach(lookup -> {
+                if (queued.remove(lookup)) {
+                    fail(lookup, ex);
+                }
+            });
+        }
+
+        void stop() {
+
+            sink.complete();
+            subscription.dispose();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+
+        stopped = true;
+        if (dispatcher != null) {
+            dispatcher.stop();
+        }
+    }
+
+}
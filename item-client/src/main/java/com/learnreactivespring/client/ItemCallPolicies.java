@@ -0,0 +1,327 @@
+package com.learnreactivespring.client;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Wraps calls to the item service in per-endpoint policies: a timeout per
+ * attempt, jittered exponential backoff retries for idempotent calls limited
+ * by a shared {@link RetryBudget}, a hedged second request for reads once
+ * the p95 latency of the endpoint has passed, and a {@link CircuitBreaker} that
+ * fails calls fast while the endpoint keeps failing.
+ * <p>
+ * Defaults come from {@code item.client.resilience.*}; timeout, retries and
+ * hedging can be overridden per endpoint under
+ * {@code item.client.resilience.endpoints.<endpoint>.*}.
+ */
+@Component
+@Slf4j
+public class ItemCallPolicies {
+
+    private static final String ENDPOINT_PREFIX = "item.client.resilience.endpoints.";
+
+    @Autowired
+    Environment environment;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${item.client.resilience.timeout:2s}")
+    Duration timeout;
+
+    @Value("${item.client.resilience.retries:2}")
+    int retries;
+
+    @Value("${item.client.resilience.min-backoff:50ms}")
+    Duration minBackoff;
+
+    @Value("${item.client.resilience.max-backoff:1s}")
+    Duration maxBackoff;
+
+    @Value("${item.client.resilience.jitter:0.5}")
+    double jitter;
+
+    @Value("${item.client.resilience.retry-budget.ratio:0.2}")
+    double retryBudgetRatio;
+
+    @Value("${item.client.resilience.retry-budget.max-tokens:10}")
+    double retryBudgetMaxTokens;
+
+    @Value("${item.client.resilience.hedge.enabled:true}")
+    boolean hedge;
+
+    @Value("${item.client.resilience.hedge.min-delay:20ms}")
+    Duration hedgeMinDelay;
+
+    @Value("${item.client.resilience.hedge.min-samples:20}")
+    long hedgeMinSamples;
+
+    @Value("${item.client.resilience.breaker.failure-rate:0.5}")
+    double failureRate;
+
+    @Value("${item.client.resilience.breaker.window:50}")
+    int breakerWindow;
+
+    @Value("${item.client.resilience.breaker.minimum-calls:20}")
+    int breakerMinimumCalls;
+
+    @Value("${item.client.resilience.breaker.open-duration:10s}")
+    Duration openDuration;
+
+    @Value("${item.client.resilience.breaker.half-open-probes:3}")
+    int halfOpenProbes;
+
+    private RetryBudget retryBudget;
+
+    private final Map<String, EndpointPolicy> policies = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+
+        retryBudget = new RetryBudget(retryBudgetRatio, retryBudgetMaxTokens);
+        Gauge.builder("item.client.retry.budget.tokens", retryBudget, RetryBudget::getTokens)
+                .description("Retries that may still be spent right now")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a single-valued read (a GET) under the policy of {@code endpoint}.
+     * Reads are retried and, unless hedging is off for the endpoint, hedged.
+     */
+    public <T> Mono<T> executeRead(String endpoint, Supplier<Mono<T>> call) {
+
+        return execute(endpoint, true, true, call);
+    }
+
+    /**
+     * Runs a single-valued call under the policy of {@code endpoint}. Only
+     * idempotent calls are retried. Writes are never hedged: an idempotent
+     * PUT or DELETE may be repeated after a failure, but racing two copies
+     * of it against each other (and against other writers) is not safe.
+     */
+    public <T> Mono<T> execute(String endpoint, boolean idempotent, Supplier<Mono<T>> call) {
+
+        return execute(endpoint, idempotent, false, call);
+    }
+
+    private <T> Mono<T> execute(String endpoint, boolean idempotent, boolean hedgeable, Supplier<Mono<T>> call) {
+
+        EndpointPolicy policy = policy(endpoint);
+        Mono<T> attempt = hedgeable && policy.hedge
+                ? Mono.defer(() -> hedged(policy, call))
+                : Mono.defer(() -> attempt(policy, call));
+
+        return attempt
+                .doOnSuccess(value -> retryBudget.deposit())
+                .retryWhen(retry(policy, idempotent, () -> true));
+    }
+
+    /**
+     * Runs a streaming call under the policy of {@code endpoint}. The timeout
+     * bounds the wait for the first element, and a failed call is only
+     * retried if nothing was emitted yet, so callers never see an element
+     * twice. Streams are not hedged.
+     */
+    public <T> Flux<T> executeMany(String endpoint, boolean idempotent, Supplier<Flux<T>> call) {
+
+        EndpointPolicy policy = policy(endpoint);
+
+        return Flux.defer(() -> {
+            AtomicBoolean emitted = new AtomicBoolean();
+            return Flux.defer(() -> attemptMany(policy, call))
+                    .doOnNext(element -> emitted.set(true))
+                    .doOnComplete(retryBudget::deposit)
+                    .retryWhen(retry(policy, idempotent, () -> !emitted.get()));
+        });
+    }
+
+    private <T> Mono<T> hedged(EndpointPolicy policy, Supplier<Mono<T>> call) {
+
+        Duration hedgeDelay = policy.hedgeDelay();
+        if (hedgeDelay == null) {
+            return attempt(policy, call);
+        }
+
+        Mono<T> hedge = Mono.delay(hedgeDelay)
+                .doOnNext(tick -> policy.hedges.increment())
+                .flatMap(tick -> attempt(policy, call))
+                // a failed hedge leaves the primary to answer
+                .onErrorResume(ex -> Mono.never());
+
+        return Mono.first(attempt(policy, call), hedge);
+    }
+
+    private <T> Mono<T> attempt(EndpointPolicy policy, Supplier<Mono<T>> call) {
+
+        if (!policy.breaker.tryAcquire()) {
+            policy.rejected.increment();
+            return Mono.error(new CallNotPermittedException(policy.endpoint));
+        }
+        long start = System.nanoTime();
+
+        return call.get()
+                .timeout(policy.timeout)
+                .doOnSuccess(value -> {
+                    policy.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    policy.breaker.onSuccess();
+                })
+                .doOnError(ex -> onError(policy, ex))
+                .doOnCancel(policy.breaker::onCancel);
+    }
+
+    private <T> Flux<T> attemptMany(EndpointPolicy policy, Supplier<Flux<T>> call) {
+
+        if (!policy.breaker.tryAcquire()) {
+            policy.rejected.increment();
+            return Flux.error(new CallNotPermittedException(policy.endpoint));
+        }
+        long start = System.nanoTime();
+
+        return call.get()
+                .timeout(Mono.delay(policy.timeout), element -> Mono.never())
+                .doOnComplete(() -> {
+                    policy.latency.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                    policy.breaker.onSuccess();
+                })
+                .doOnError(ex -> onError(policy, ex))
+                .doOnCancel(policy.breaker::onCancel);
+    }
+
+    private void onError(EndpointPolicy policy, Throwable ex) {
+
+        if (isServiceFailure(ex)) {
+            policy.breaker.onFailure();
+        } else {
+            policy.breaker.onSuccess();
+        }
+    }
+
+    private Retry retry(EndpointPolicy policy, boolean idempotent, Supplier<Boolean> retryable) {
+
+        return Retry.backoff(policy.retries, minBackoff)
+                .maxBackoff(maxBackoff)
+                .jitter(jitter)
+                .filter(ex -> {
+                    if (!idempotent || !retryable.get() || !isServiceFailure(ex)) {
+                        return false;
+                    }
+                    if (!retryBudget.tryWithdraw()) {
+                        policy.budgetExhausted.increment();
+                        return false;
+                    }
+                    policy.retried.increment();
+                    log.debug("Retrying {} after : {}", policy.endpoint, ex.getMessage());
+                    return true;
+                })
+                .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    }
+
+    /**
+     * Timeouts, connection errors and 5xx responses count against the
+     * service; 4xx responses are the caller's problem and an open circuit
+     * must not be retried into.
+     */
+    static boolean isServiceFailure(Throwable ex) {
+
+        if (ex instanceof CallNotPermittedException) {
+            return false;
+        }
+        if (ex instanceof WebClientResponseException) {
+            return ((WebClientResponseException) ex).getStatusCode().is5xxServerError();
+        }
+        return true;
+    }
+
+    private EndpointPolicy policy(String endpoint) {
+
+        return policies.computeIfAbsent(endpoint, name -> new EndpointPolicy(name,
+                environment.getProperty(ENDPOINT_PREFIX + name + ".timeout", Duration.class, timeout),
+                environment.getProperty(ENDPOINT_PREFIX + name + ".retries", Integer.class, retries),
+                environment.getProperty(ENDPOINT_PREFIX + name + ".hedge", Boolean.class, hedge)));
+    }
+
+    private class EndpointPolicy {
+
+        final String endpoint;
+        final Duration timeout;
+        final int retries;
+        final boolean hedge;
+        final CircuitBreaker breaker;
+        final Timer latency;
+        final Counter retried;
+        final Counter budgetExhausted;
+        final Counter hedges;
+        final Counter rejected;
+
+        EndpointPolicy(String endpoint, Duration timeout, int retries, boolean hedge) {
+
+            this.endpoint = endpoint;
+            this.timeout = timeout;
+            this.retries = retries;
+            this.hedge = hedge;
+            this.breaker = new CircuitBreaker(failureRate, breakerWindow, breakerMinimumCalls, openDuration, halfOpenProbes);
+            this.latency = Timer.builder("item.client.call.latency")
+                    .description("Successful attempts against the item service")
+                    .tag("endpoint", endpoint)
+                    .publishPercentiles(0.95)
+                    .distributionStatisticExpiry(Duration.ofMinutes(1))
+                    .register(meterRegistry);
+            this.retried = counter("item.client.retries", "Attempts retried");
+            this.budgetExhausted = counter("item.client.retries.denied", "Retries skipped because the retry budget was spent");
+            this.hedges = counter("item.client.hedges", "Hedged second requests sent");
+            this.rejected = counter("item.client.circuit.rejected", "Calls failed fast by an open circuit");
+            Gauge.builder("item.client.circuit.state", breaker, circuit -> circuit.getState().ordinal())
+                    .description("0 closed, 1 half-open, 2 open")
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * The current p95 of the endpoint, no lower than the configured
+         * minimum; null until enough calls were seen to know it.
+         */
+        Duration hedgeDelay() {
+
+            if (latency.count() < hedgeMinSamples) {
+                return null;
+            }
+            for (ValueAtPercentile percentile : latency.takeSnapshot().percentileValues()) {
+                if (percentile.percentile() == 0.95) {
+                    long p95 = (long) percentile.value(TimeUnit.NANOSECONDS);
+                    return Duration.ofNanos(Math.max(p95, hedgeMinDelay.toNanos()));
+                }
+            }
+            return null;
+        }
+
+        private Counter counter(String name, String description) {
+
+            return Counter.builder(name)
+                    .description(description)
+                    .tag("endpoint", endpoint)
+                    .register(meterRegistry);
+        }
+    }
+
+}
@@ -0,0 +1,364 @@
+package com.learnreactivespring.client;
+
+import com.learnreactivespring.domain.Item;
+import com.learnreactivespring.domain.ItemChange;
+import com.learnreactivespring.domain.ItemSyncChange;
+import com.learnreactivespring.domain.ItemSyncPage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Opt-in ({@code item.client.replica.enabled}) in-memory copy of the catalog.
+ * It is filled from the item service's sync endpoint and kept current from
+ * its change feed (server-sent events).
+ * <p>
+ * Each session opens the change feed first and then catches up through
+ * sync: a full snapshot the first time, only the changes since the last
+ * sync token afterwards. Changes from the feed always win over what the
+ * catch-up read for the same id, so the two can run side by side; both are
+ * applied under one lock, so a catch-up write never lands between the feed
+ * marking an id and applying it.
+ * <p>
+ * Reads go to the replica only while it is live and the feed (events or
+ * heartbeats) was heard from within {@code max-staleness}. Otherwise callers
+ * fall back to direct calls. A dropped feed is reopened in the background
+ * with backoff; an invalidate event forces a new snapshot.
+ */
+@Component
+@Slf4j
+public class ItemCatalogReplica {
+
+    private static final ParameterizedTypeReference<ServerSentEvent<ItemChange>> CHANGE_EVENT =
+            new ParameterizedTypeReference<ServerSentEvent<ItemChange>>() {};
+
+    @Autowired
+    WebClient webClient;
+
+    @Autowired
+    ItemWebClientFactory itemWebClientFactory;
+
+    @Autowired
+    ItemCallPolicies itemCallPolicies;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${item.client.media-type:application/json}")
+    MediaType mediaType;
+
+    @Value("${item.client.replica.enabled:false}")
+    boolean enabled;
+
+    @Value("${item.client.replica.max-staleness:30s}")
+    Duration maxStaleness;
+
+    @Value("${item.client.replica.page-size:1000}")
+    int pageSize;
+
+    @Value("${item.client.replica.min-backoff:1s}")
+    Duration minBackoff;
+
+    @Value("${item.client.replica.max-backoff:30s}")
+    Duration maxBackoff;
+
+    private final Map<String, Item> items = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong lastHeard = new AtomicLong();
+
+    private final Object applyLock = new Object();
+
+    private volatile boolean live;
+
+    private volatile String syncToken;
+
+    private WebClient streamingWebClient;
+
+    private Disposable replication;
+
+    private Timer lag;
+
+    private Counter snapshots;
+
+    private Counter deltas;
+
+    private Counter replicaReads;
+
+    private Counter directReads;
+
+    @PostConstruct
+    public void init() {
+
+        Gauge.builder("item.client.replica.size", items, Map::size)
+                .description("Items held by the local catalog replica")
+                .register(meterRegistry);
+        Gauge.builder("item.client.replica.live", this, replica -> replica.isFresh() ? 1 : 0)
+                .description("1 while reads are served from the replica")
+                .register(meterRegistry);
+        Gauge.builder("item.client.replica.staleness", this, ItemCatalogReplica::stalenessSeconds)
+                .description("Seconds since the change feed was last heard from")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+        lag = Timer.builder("item.client.replica.lag")
+                .description("Time from a change on the item service to it being applied to the replica")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        snapshots = Counter.builder("item.client.replica.resyncs").tag("type", "snapshot").register(meterRegistry);
+        deltas = Counter.builder("item.client.replica.resyncs").tag("type", "delta").register(meterRegistry);
+        replicaReads = Counter.builder("item.client.replica.reads").tag("source", "replica").register(meterRegistry);
+        directReads = Counter.builder("item.client.replica.reads").tag("source", "direct").register(meterRegistry);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+
+        if (!enabled) {
+            return;
+        }
+        streamingWebClient = itemWebClientFactory.createStreaming();
+        replication = Flux.defer(this::session)
+                .repeatWhen(completions -> completions.delayElements(minBackoff))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, minBackoff)
+                        .maxBackoff(maxBackoff)
+                        .transientErrors(true)
+                        .doBeforeRetry(signal -> log.warn("Catalog replica lost the change feed, serving direct calls until it resyncs : {}",
+                                signal.failure().getMessage())))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+
+        if (replication != null) {
+            replication.dispose();
+        }
+    }
+
+    /**
+     * True when reads may be served from the replica.
+     */
+    public boolean isFresh() {
+
+        return live && System.nanoTime() - lastHeard.get() <= maxStaleness.toNanos();
+    }
+
+    /**
+     * Serves {@code fromReplica} while the replica is fresh, {@code direct}
+     * otherwise, and counts which one it was.
+     */
+    public <T> Flux<T> read(Function<ItemCatalogReplica, Flux<T>> fromReplica, Flux<T> direct) {
+
+        return Flux.defer(() -> {
+            if (isFresh()) {
+                replicaReads.increment();
+                return fromReplica.apply(this);
+            }
+            directReads.increment();
+            return direct;
+        });
+    }
+
+    public <T> Mono<T> read(Function<ItemCatalogReplica, Mono<T>> fromReplica, Mono<T> direct) {
+
+        return Mono.defer(() -> {
+            if (isFresh()) {
+                replicaReads.increment();
+                return fromReplica.apply(this);
+            }
+            directReads.increment();
+            return direct;
+        });
+    }
+
+    public Flux<Item> items() {
+        return Flux.fromIterable(items.values());
+    }
+
+    public Mono<Item> item(String id) {
+        return Mono.justOrEmpty(items.get(id));
+    }
+
+    /**
+     * One feed connection: applies changes as they come while catching up
+     * through sync, and goes live once caught up. The catch-up starts with
+     * the feed's first signal (the server's "connected" comment). Ends (and is repeated) when
+     * the connection ends. Events and heartbeats are passed on, so the
+     * reconnect backoff starts over once a session has heard from the feed.
+     */
+    private Flux<ServerSentEvent<ItemChange>> session() {
+
+        Set<String> touched = ConcurrentHashMap.newKeySet();
+        AtomicLong catchingUp = new AtomicLong(1);
+        heard();
+
+        Flux<ServerSentEvent<ItemChange>> feed = streamingWebClient.get().uri("/v1/stream/items/changes")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .retrieve()
+                .bodyToFlux(CHANGE_EVENT)
+                .doOnNext(event -> heard())
+                .concatMap(event -> event.data() == null
+                        ? Mono.just(event)
+                        : apply(event.data(), catchingUp.get() > 0 ? touched : null).thenReturn(event))
+                .doFinally(signal -> live = false);
+
+        Mono<Void> catchUp = catchUp(touched)
+                .doOnSuccess(done -> {
+                    catchingUp.set(0);
+                    touched.clear();
+                    heard();
+                    live = true;
+                    log.info("Catalog replica is live with {} items", items.size());
+                });
+
+        // catch up only once the server confirmed the feed is subscribed, so
+        // no change falls between what the catch-up reads and the feed
+        return feed.publish(events -> Flux.merge(events,
+                events.next().flatMap(connected -> catchUp).thenMany(Flux.empty())));
+    }
+
+    private Mono<Void> apply(ItemChange change, Set<String> touched) {
+
+        if (change.getId() == null) {
+            syncToken = null;
+            return Mono.error(new IllegalStateException("Item collection " + change.getOperationType() + ", reloading the catalog"));
+        }
+        synchronized (applyLock) {
+            if (touched != null) {
+                touched.add(change.getId());
+            }
+            if ("delete".equals(change.getOperationType())) {
+                items.remove(change.getId());
+            } else if (change.getItem() != null) {
+                items.put(change.getId(), change.getItem());
+            }
+        }
+        if (change.getTimestamp() != null) {
+            lag.record(Math.max(0, Instant.now().toEpochMilli() - change.getTimestamp().toEpochMilli()), TimeUnit.MILLISECONDS);
+        }
+        return Mono.empty();
+    }
+
+    /**
+     * Changes since the last sync token, or a full snapshot when there is
+     * none (or the server no longer has the deletes it would need). Ids the
+     * feed already changed in this session are left alone.
+     */
+    private Mono<Void> catchUp(Set<String> touched) {
+
+        String since = syncToken;
+        if (since == null) {
+            return snapshot(touched);
+        }
+        deltas.increment();
+        return syncPages(since)
+                .doOnNext(page -> page.getChanges().forEach(change -> applySynced(change, touched)))
+                .then()
+                .onErrorResume(WebClientResponseException.class, ex -> {
+                    if (ex.getStatusCode() != HttpStatus.GONE) {
+                        return Mono.error(ex);
+                    }
+                    log.info("Sync token expired, reloading the catalog");
+                    syncToken = null;
+                    return snapshot(touched);
+                });
+    }
+
+    private Mono<Void> snapshot(Set<String> touched) {
+
+        snapshots.increment();
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+
+        return syncPages(null)
+                .doOnNext(page -> page.getChanges().forEach(change -> {
+                    seen.add(change.getId());
+                    applySynced(change, touched);
+                }))
+                .then(Mono.fromRunnable(() -> {
+                    synchronized (applyLock) {
+                        items.keySet().removeIf(id -> !seen.contains(id) && !touched.contains(id));
+                    }
+                }));
+    }
+
+    /**
+     * Applies a change read by catch-up unless the feed already changed the
+     * same id in this session.
+     */
+    private void applySynced(ItemSyncChange change, Set<String> touched) {
+
+        synchronized (applyLock) {
+            if (touched.contains(change.getId())) {
+                return;
+            }
+            if (change.isDeleted()) {
+                items.remove(change.getId());
+            } else {
+                items.put(change.getId(), change.getItem());
+            }
+        }
+    }
+
+    /**
+     * Follows sync pages until the server says there are no more, keeping
+     * the latest token for the next catch-up.
+     */
+    private Flux<ItemSyncPage> syncPages(String since) {
+
+        return syncPage(since)
+                .expand(page -> page.isMore() ? syncPage(page.getToken()) : Mono.empty())
+                .doOnNext(page -> syncToken = page.getToken());
+    }
+
+    private Mono<ItemSyncPage> syncPage(String since) {
+
+        return itemCallPolicies.executeRead("sync", () -> webClient.get()
+                .uri(uriBuilder -> {
+                    uriBuilder.path("/v1/items/sync").queryParam("limit", pageSize);
+                    if (since != null) {
+                        uriBuilder.queryParam("since", since);
+                    }
+                    return uriBuilder.build();
+                })
+                .accept(mediaType)
+                .retrieve()
+                .bodyToMono(ItemSyncPage.class));
+    }
+
+    private void heard() {
+        lastHeard.set(System.nanoTime());
+    }
+
+    private double stalenessSeconds() {
+        return (System.nanoTime() - lastHeard.get()) / 1e9;
+    }
+
+}
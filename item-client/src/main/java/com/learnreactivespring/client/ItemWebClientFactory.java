@@ -0,0 +1,153 @@
+package com.learnreactivespring.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds the WebClient used to call the item service, on a named, bounded
+ * connection pool instead of reactor-netty's defaults: at most
+ * {@code max-connections} connections, at most {@code pending-acquire-max-count}
+ * callers waiting for one (for no longer than {@code pending-acquire-timeout}),
+ * and connections dropped once idle or old. Responses are gzip negotiated,
+ * h2c is offered with HTTP/1.1 fallback, and connect, read, write and
+ * response timeouts are bounded. Pool metrics go to Micrometer.
+ * <p>
+ * Long-lived streams get their own small pool from {@link #createStreaming()},
+ * with a read timeout sized for the server's heartbeats instead of for
+ * request/response calls.
+ */
+@Component
+@Slf4j
+public class ItemWebClientFactory implements DisposableBean {
+
+    @Autowired
+    WebClient.Builder webClientBuilder;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @Value("${item.client.base-url:http://localhost:8080}")
+    String baseUrl;
+
+    @Value("${item.client.pool.name:item-service}")
+    String poolName;
+
+    @Value("${item.client.pool.max-connections:500}")
+    int maxConnections;
+
+    @Value("${item.client.pool.pending-acquire-max-count:1000}")
+    int pendingAcquireMaxCount;
+
+    @Value("${item.client.pool.pending-acquire-timeout:5s}")
+    Duration pendingAcquireTimeout;
+
+    @Value("${item.client.pool.max-idle-time:30s}")
+    Duration maxIdleTime;
+
+    @Value("${item.client.pool.max-life-time:5m}")
+    Duration maxLifeTime;
+
+    @Value("${item.client.connect-timeout:2s}")
+    Duration connectTimeout;
+
+    @Value("${item.client.read-timeout:10s}")
+    Duration readTimeout;
+
+    @Value("${item.client.write-timeout:10s}")
+    Duration writeTimeout;
+
+    @Value("${item.client.response-timeout:5s}")
+    Duration responseTimeout;
+
+    @Value("${item.client.compression:true}")
+    boolean compression;
+
+    @Value("${item.client.h2c:true}")
+    boolean h2c;
+
+    @Value("${item.client.streams.max-connections:4}")
+    int maxStreamConnections;
+
+    @Value("${item.client.streams.read-timeout:45s}")
+    Duration streamReadTimeout;
+
+    private final List<ConnectionProvider> connectionProviders = new CopyOnWriteArrayList<>();
+
+    public WebClient create() {
+
+        log.info("Item service client on {}: pool {} of {} connections, {} pending at most",
+                baseUrl, poolName, maxConnections, pendingAcquireMaxCount);
+
+        return build(poolName, maxConnections, readTimeout);
+    }
+
+    public WebClient createStreaming() {
+
+        return build(poolName + "-streams", maxStreamConnections, streamReadTimeout);
+    }
+
+    private WebClient build(String name, int connections, Duration connectionReadTimeout) {
+
+        ConnectionProvider connectionProvider = ConnectionProvider.builder(name)
+                .maxConnections(connections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .metrics(true)
+                .build();
+        connectionProviders.add(connectionProvider);
+
+        // read and write timeouts are added per request: handlers added while a
+        // request runs are removed when its connection goes back to the pool,
+        // so idle pooled connections are left to max-idle-time
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .compress(compression)
+                .tcpConfiguration(tcpClient -> tcpClient
+                        .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis()))
+                .doOnRequest((request, connection) -> connection
+                        .addHandlerLast(new ReadTimeoutHandler(connectionReadTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                        .addHandlerLast(new WriteTimeoutHandler(writeTimeout.toMillis(), TimeUnit.MILLISECONDS)));
+        if (h2c) {
+            httpClient = httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+        }
+
+        return webClientBuilder.clone()
+                .baseUrl(baseUrl)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .codecs(configurer -> {
+                    configurer.customCodecs().register(new Jackson2CborDecoder());
+                    configurer.customCodecs().register(new Jackson2CborEncoder());
+                    configurer.customCodecs().register(new Jackson2JsonDecoder(objectMapper, ItemBatchLoader.APPLICATION_NDJSON));
+                })
+                .filter((request, next) -> next.exchange(request).timeout(responseTimeout))
+                .build();
+    }
+
+    @Override
+    public void destroy() {
+
+        connectionProviders.forEach(connectionProvider -> connectionProvider.disposeLater().block(Duration.ofSeconds(5)));
+    }
+
+}
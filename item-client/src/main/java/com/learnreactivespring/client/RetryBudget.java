@@ -0,0 +1,37 @@
+package com.learnreactivespring.client;
+
+/**
+ * Caps retries to a share of successful traffic so retries cannot multiply
+ * the load on a struggling service: every success deposits {@code ratio}
+ * tokens, every retry takes one, and at most {@code maxTokens} are kept.
+ */
+public class RetryBudget {
+
+    private final double ratio;
+    private final double maxTokens;
+    private double tokens;
+
+    public RetryBudget(double ratio, double maxTokens) {
+        this.ratio = ratio;
+        this.maxTokens = maxTokens;
+        this.tokens = maxTokens;
+    }
+
+    public synchronized void deposit() {
+        tokens = Math.min(maxTokens, tokens + ratio);
+    }
+
+    public synchronized boolean tryWithdraw() {
+
+        if (tokens < 1) {
+            return false;
+        }
+        tokens--;
+        return true;
+    }
+
+    public synchronized double getTokens() {
+        return tokens;
+    }
+
+}
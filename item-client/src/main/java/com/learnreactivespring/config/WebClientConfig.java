@@ -0,0 +1,17 @@
+package com.learnreactivespring.config;
+
+import com.learnreactivespring.client.ItemWebClientFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.function.client.WebClient;
+
+@Configuration
+public class WebClientConfig {
+
+    @Bean
+    public WebClient itemWebClient(ItemWebClientFactory itemWebClientFactory) {
+
+        return itemWebClientFactory.create();
+    }
+
+}
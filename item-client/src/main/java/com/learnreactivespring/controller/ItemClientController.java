@@ -1,7 +1,14 @@
 package com.learnreactivespring.controller;
 
+import com.learnreactivespring.client.ItemBatchLoader;
+import com.learnreactivespring.client.ItemCallPolicies;
+import com.learnreactivespring.client.ItemCatalogReplica;
 import com.learnreactivespring.domain.Item;
+import com.learnreactivespring.domain.ItemLookupResult;
+import com.learnreactivespring.trace.ReactiveTracer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
@@ -9,37 +16,84 @@ import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
+import static com.learnreactivespring.client.ItemBatchLoader.APPLICATION_NDJSON;
+
 @RestController
 @Slf4j
 public class ItemClientController {
 
-    WebClient webClient = WebClient.create("http://localhost:8080");
+    /**
+     * Wire format for calls to the item service: application/json (the
+     * default), application/x-jackson-smile or application/cbor.
+     */
+    @Value("${item.client.media-type:application/json}")
+    MediaType mediaType;
+
+    @Autowired
+    ReactiveTracer reactiveTracer;
+
+    @Autowired
+    WebClient webClient;
 
+    @Autowired
+    ItemBatchLoader itemBatchLoader;
+
+    @Autowired
+    ItemCallPolicies itemCallPolicies;
+
+    @Autowired
+    ItemCatalogReplica itemCatalogReplica;
+
+    /**
+     * The list endpoints and single item lookups by id are answered from
+     * the local catalog replica while it is fresh, see ItemCatalogReplica.
+     */
     @GetMapping("/client/retrieve")
     public Flux<Item> getAllItemsUsingRetrieve(){
 
-        return webClient.get().uri("/v1/items")
-                .retrieve()
-                .bodyToFlux(Item.class)
-                .log("Items in Client Project retrieve : ");
+        return reactiveTracer.trace("client-retrieve", itemCatalogReplica.read(ItemCatalogReplica::items,
+                itemCallPolicies.executeMany("items", true, () -> webClient.get().uri("/v1/items")
+                        .accept(listMediaType())
+                        .retrieve()
+                        .bodyToFlux(Item.class))));
     }
 
     @GetMapping("/client/exchange")
     public Flux<Item> getAllItemsUsingExchange(){
 
-        return webClient.get().uri("/v1/items")
-                .exchange()
-                .flatMapMany(clientResponse -> clientResponse.bodyToFlux(Item.class))
-                .log("Items in Client Project exchange : ");
+        return reactiveTracer.trace("client-exchange", itemCatalogReplica.read(ItemCatalogReplica::items,
+                itemCallPolicies.executeMany("items", true, () -> webClient.get().uri("/v1/items")
+                        .accept(listMediaType())
+                        .exchange()
+                        .flatMapMany(clientResponse -> clientResponse.bodyToFlux(Item.class)))));
     }
 
-    @GetMapping("/client/retrieve/singleItem")
+    /**
+     * Goes through the batch loader, so concurrent lookups share one
+     * batchGet call to the item service.
+     */
+    @GetMapping("/client/retrieve/singleItem/{id}")
     public Mono<Item> getOneItemUsingRetrieve(@PathVariable String id){
 
-        return webClient.get().uri("/v1/items/{id}",id)
+        return reactiveTracer.trace("client-retrieve-single",
+                itemCatalogReplica.read(replica -> replica.item(id), itemBatchLoader.load(id)));
+    }
+
+    /**
+     * Many items in one batchGet call, streamed back as the item service
+     * answers each chunk; ids without an item come back with found = false.
+     */
+    @GetMapping("/client/retrieve/items")
+    public Flux<ItemLookupResult> getItemsUsingBatchGet(@RequestParam List<String> ids){
+
+        return reactiveTracer.trace("client-batch-get", itemCallPolicies.executeMany("batch-get", true, () -> webClient.post().uri("/v1/items/batchGet")
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(APPLICATION_NDJSON)
+                .bodyValue(ids)
                 .retrieve()
-                .bodyToMono(Item.class)
-                .log("Items in Client Project retrieve single Item : ");
+                .bodyToFlux(ItemLookupResult.class)));
     }
 
     @GetMapping("/client/exchange/singleItem")
@@ -47,38 +101,37 @@ public class ItemClientController {
 
         String id = "ABC";
 
-        return webClient.get().uri("/v1/items/{id}",id)
+        return reactiveTracer.trace("client-exchange-single", itemCallPolicies.executeRead("item", () -> webClient.get().uri("/v1/items/{id}",id)
+                .accept(mediaType)
                 .exchange()
-                .flatMap(clientResponse -> clientResponse.bodyToMono(Item.class))
-                .log("Items in Client Project retrieve single Item : ");
+                .flatMap(clientResponse -> clientResponse.bodyToMono(Item.class))));
     }
 
     @PostMapping("/client/createItem")
     public Mono<Item> createItem(@RequestBody Item item){
 
         Mono<Item> itemMono = Mono.just(item);
-       return webClient.post().uri("/v1/items")
-                .contentType(MediaType.APPLICATION_JSON)
+       return reactiveTracer.trace("client-create", itemCallPolicies.execute("create-item", false, () -> webClient.post().uri("/v1/items")
+                .contentType(mediaType)
+                .accept(mediaType)
                 .body(itemMono, Item.class)
                 .retrieve()
-                .bodyToMono(Item.class)
-                .log("Created item is : ");
+                .bodyToMono(Item.class)));
 
     }
 
     @DeleteMapping("/client/deleteItem/{id}")
     public Mono<Void> deleteItem(@PathVariable String id){
 
-        return webClient.delete().uri("/v1/items/{id}",id)
+        return reactiveTracer.trace("client-delete", itemCallPolicies.execute("delete-item", true, () -> webClient.delete().uri("/v1/items/{id}",id)
                 .retrieve()
-                .bodyToMono(Void.class)
-                .log("Deleted Item is");
+                .bodyToMono(Void.class)));
     }
 
     @GetMapping("/client/retrieve/error")
     public Flux<Item> errorRetrieve(){
 
-        return webClient.get()
+        return itemCallPolicies.executeMany("runtime-exception", true, () -> webClient.get()
                 .uri("/v1/items/runtimeException")
                 .retrieve()
                 .onStatus(HttpStatus::is5xxServerError, clientResponse -> {
@@ -89,14 +142,14 @@ public class ItemClientController {
                         throw  new RuntimeException(errorMessage);
                     });
                 })
-               .bodyToFlux(Item.class);
+               .bodyToFlux(Item.class));
     }
 
 
     @GetMapping("/client/exchange/error")
     public Flux<Item> errorExchange(){
 
-        return webClient.get()
+        return itemCallPolicies.executeMany("runtime-exception", true, () -> webClient.get()
                 .uri("/v1/items/runtimeException")
                 .exchange()
                 .flatMapMany((clientResponse -> {
@@ -112,7 +165,7 @@ public class ItemClientController {
                         return clientResponse.bodyToFlux(Item.class);
                     }
 
-                }));
+                })));
 
     }
 
@@ -123,13 +176,21 @@ public class ItemClientController {
 
         Mono<Item> itemBody = Mono.just(item);
 
-        return webClient.put().uri("/v1/items/{id}",id)
+        return reactiveTracer.trace("client-update", itemCallPolicies.execute("update-item", true, () -> webClient.put().uri("/v1/items/{id}",id)
+                .contentType(mediaType)
+                .accept(mediaType)
                 .body(itemBody, Item.class)
                 .retrieve()
-                .bodyToMono(Item.class)
-                .log("Updated Item is : ");
+                .bodyToMono(Item.class)));
     }
 
+    /**
+     * Lists are decoded item by item as they arrive. Spring's CBOR decoder
+     * only reads whole values, so with CBOR configured lists are read as JSON.
+     */
+    private MediaType listMediaType() {
 
+        return MediaType.APPLICATION_CBOR.isCompatibleWith(mediaType) ? MediaType.APPLICATION_JSON : mediaType;
+    }
 
 }
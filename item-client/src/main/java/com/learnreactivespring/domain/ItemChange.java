@@ -0,0 +1,19 @@
+package com.learnreactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemChange {
+
+    private String operationType;
+    private String id;
+    private Item item;
+    private String resumeToken;
+    private Instant timestamp;
+}
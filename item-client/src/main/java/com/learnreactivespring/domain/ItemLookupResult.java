@@ -0,0 +1,15 @@
+package com.learnreactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemLookupResult {
+
+    private String id;
+    private boolean found;
+    private Item item;
+}
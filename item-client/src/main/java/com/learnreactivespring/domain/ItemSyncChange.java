@@ -0,0 +1,15 @@
+package com.learnreactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemSyncChange {
+
+    private String id;
+    private boolean deleted;
+    private Item item;
+}
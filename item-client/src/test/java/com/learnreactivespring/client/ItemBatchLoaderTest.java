@@ -0,0 +1,171 @@
+package com.learnreactivespring.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ItemBatchLoaderTest {
+
+    private static final String FOUND_ABC =
+            "[{\"id\":\"ABC\",\"found\":true,\"item\":{\"id\":\"ABC\",\"description\":\"Beats HeadPhones\",\"price\":149.99}}]";
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private ItemBatchLoader loader;
+
+    @Before
+    public void setUp() {
+
+        loader = new ItemBatchLoader();
+        loader.itemCallPolicies = mock(ItemCallPolicies.class);
+        loader.meterRegistry = meterRegistry;
+        loader.window = Duration.ofMillis(50);
+        loader.maxBatchSize = 100;
+        loader.concurrency = 8;
+        passThrough();
+        answerAfter(Duration.ZERO);
+    }
+
+    @After
+    public void tearDown() {
+
+        loader.stop();
+    }
+
+    @Test
+    public void coalescesLookupsIntoOneCall() {
+
+        loader.start();
+
+        StepVerifier.create(Flux.merge(loader.load("ABC"), loader.load("ABC"), loader.load("DEF")))
+                .expectNextMatches(item -> item.getId().equals("ABC"))
+                .expectNextMatches(item -> item.getId().equals("ABC"))
+                .verifyComplete();
+
+        assertEquals(1, calls.get());
+        assertEquals(1.0, meterRegistry.counter("item.client.batch.coalesced").count(), 0.0);
+    }
+
+    @Test
+    public void queuesBatchesWhileAllCallsAreInFlight() {
+
+        loader.window = Duration.ofMillis(1);
+        loader.maxBatchSize = 2;
+        loader.concurrency = 1;
+        answerAfter(Duration.ofMillis(20));
+        loader.start();
+
+        // far more batches are ready than the one call allowed in flight
+        StepVerifier.create(Flux.range(0, 200).flatMap(i -> loader.load("id-" + i)))
+                .expectComplete()
+                .verify(Duration.ofSeconds(30));
+
+        assertTrue(calls.get() >= 100);
+    }
+
+    @Test
+    public void failsPendingLookupsAndRecoversWhenTheDispatcherFails() {
+
+        doThrow(new IllegalStateException("dispatcher bug"))
+                .doAnswer(invocation -> invocation.<Supplier<Flux<?>>>getArgument(2).get())
+                .when(loader.itemCallPolicies).executeMany(anyString(), anyBoolean(), any());
+        loader.start();
+
+        StepVerifier.create(loader.load("ABC"))
+                .expectErrorMessage("dispatcher bug")
+                .verify(Duration.ofSeconds(5));
+
+        StepVerifier.create(loader.load("ABC"))
+                .expectNextMatches(item -> item.getPrice().equals(149.99))
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void laterLookupIsNotAnsweredByAnEarlierBatch() {
+
+        // the first batch answers ABC at once but only ends 300ms later; the
+        // second one answers ABC after the first has ended
+        loader.webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    boolean first = calls.incrementAndGet() == 1;
+                    Flux<DataBuffer> body = Flux.concat(
+                            Mono.delay(first ? Duration.ZERO : Duration.ofMillis(500)).map(tick -> buffer(FOUND_ABC.substring(0, FOUND_ABC.length() - 1))),
+                            Mono.delay(first ? Duration.ofMillis(300) : Duration.ZERO).map(tick -> buffer("]")));
+                    return Mono.just(ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body(body)
+                            .build());
+                })
+                .build();
+        loader.start();
+
+        StepVerifier.create(loader.load("ABC"))
+                .expectNextMatches(item -> item.getId().equals("ABC"))
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+
+        StepVerifier.create(loader.load("ABC"))
+                .expectNextMatches(item -> item.getId().equals("ABC"))
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(2, calls.get());
+    }
+
+    private static DataBuffer buffer(String text) {
+
+        return new DefaultDataBufferFactory().wrap(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void passThrough() {
+
+        when(loader.itemCallPolicies.executeMany(anyString(), anyBoolean(), any()))
+                .thenAnswer(invocation -> invocation.<Supplier<Flux<?>>>getArgument(2).get());
+    }
+
+    /**
+     * Every batchGet answers ABC as found, after {@code delay}; other ids
+     * are left out, which the loader treats as not found.
+     */
+    private void answerAfter(Duration delay) {
+
+        loader.webClient = WebClient.builder()
+                .exchangeFunction(request -> {
+                    calls.incrementAndGet();
+                    return Mono.delay(delay).map(tick -> ClientResponse.create(HttpStatus.OK)
+                            .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                            .body(FOUND_ABC)
+                            .build());
+                })
+                .build();
+    }
+
+}
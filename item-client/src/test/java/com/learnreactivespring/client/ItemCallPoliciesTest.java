@@ -0,0 +1,163 @@
+package com.learnreactivespring.client;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ItemCallPoliciesTest {
+
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    private ItemCallPolicies policies;
+
+    @Before
+    public void setUp() {
+
+        policies = new ItemCallPolicies();
+        policies.environment = new MockEnvironment();
+        policies.meterRegistry = new SimpleMeterRegistry();
+        policies.timeout = Duration.ofSeconds(2);
+        policies.retries = 2;
+        policies.minBackoff = Duration.ofMillis(1);
+        policies.maxBackoff = Duration.ofMillis(10);
+        policies.jitter = 0.5;
+        policies.retryBudgetRatio = 0.2;
+        policies.retryBudgetMaxTokens = 10;
+        policies.hedge = true;
+        policies.hedgeMinDelay = Duration.ofMillis(20);
+        policies.hedgeMinSamples = 1;
+        policies.failureRate = 0.5;
+        policies.breakerWindow = 4;
+        policies.breakerMinimumCalls = 4;
+        policies.openDuration = Duration.ofSeconds(10);
+        policies.halfOpenProbes = 1;
+        policies.init();
+    }
+
+    @Test
+    public void retriesIdempotentCallsOnServiceFailures() {
+
+        StepVerifier.create(policies.execute("item", true, () -> failFirst(HttpStatus.SERVICE_UNAVAILABLE)))
+                .expectNext("ok")
+                .verifyComplete();
+
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void doesNotRetryNonIdempotentCalls() {
+
+        StepVerifier.create(policies.execute("create-item", false, () -> failFirst(HttpStatus.SERVICE_UNAVAILABLE)))
+                .expectError(WebClientResponseException.class)
+                .verify();
+
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void doesNotRetryClientErrors() {
+
+        StepVerifier.create(policies.execute("item", true, () -> failFirst(HttpStatus.NOT_FOUND)))
+                .expectError(WebClientResponseException.class)
+                .verify();
+
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void streamsAreNotRetriedOnceTheyEmitted() {
+
+        StepVerifier.create(policies.executeMany("items", true, () -> {
+            attempts.incrementAndGet();
+            return Flux.concat(Mono.just("first"), Mono.error(serviceFailure(HttpStatus.BAD_GATEWAY)));
+        }))
+                .expectNext("first")
+                .expectError(WebClientResponseException.class)
+                .verify();
+
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void hedgesSlowReads() {
+
+        warmUp("item");
+
+        StepVerifier.create(policies.executeRead("item", () -> attempts.incrementAndGet() == 1
+                ? Mono.<String>never()
+                : Mono.just("hedge")))
+                .expectNext("hedge")
+                .expectComplete()
+                .verify(Duration.ofSeconds(1));
+
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    public void neverHedgesWrites() {
+
+        warmUp("update-item");
+
+        StepVerifier.create(policies.execute("update-item", true, () -> {
+            attempts.incrementAndGet();
+            return Mono.delay(Duration.ofMillis(200)).thenReturn("written");
+        }))
+                .expectNext("written")
+                .verifyComplete();
+
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    public void openCircuitFailsFastWithoutCalling() {
+
+        policies.retries = 0;
+        for (int i = 0; i < 4; i++) {
+            StepVerifier.create(policies.execute("delete-item", true, () -> {
+                attempts.incrementAndGet();
+                return Mono.<String>error(serviceFailure(HttpStatus.INTERNAL_SERVER_ERROR));
+            }))
+                    .expectError(WebClientResponseException.class)
+                    .verify();
+        }
+
+        StepVerifier.create(policies.execute("delete-item", true, () -> {
+            attempts.incrementAndGet();
+            return Mono.just("ok");
+        }))
+                .expectError(CallNotPermittedException.class)
+                .verify();
+
+        assertEquals(4, attempts.get());
+    }
+
+    private Mono<String> failFirst(HttpStatus status) {
+
+        return attempts.incrementAndGet() == 1 ? Mono.error(serviceFailure(status)) : Mono.just("ok");
+    }
+
+    /**
+     * One fast call, so the endpoint has the latency sample hedging waits for.
+     */
+    private void warmUp(String endpoint) {
+
+        policies.executeRead(endpoint, () -> Mono.just("warm")).block();
+    }
+
+    private static WebClientResponseException serviceFailure(HttpStatus status) {
+
+        return WebClientResponseException.create(status.value(), status.getReasonPhrase(), null, null, null);
+    }
+
+}
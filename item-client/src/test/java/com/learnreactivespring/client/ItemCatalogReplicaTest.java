@@ -0,0 +1,317 @@
+package com.learnreactivespring.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learnreactivespring.domain.Item;
+import com.learnreactivespring.domain.ItemChange;
+import com.learnreactivespring.domain.ItemSyncChange;
+import com.learnreactivespring.domain.ItemSyncPage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.util.UriComponentsBuilder;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.UnicastProcessor;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ItemCatalogReplicaTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * One processor per feed connection the replica opens, in order.
+     */
+    private final BlockingQueue<UnicastProcessor<String>> feeds = new LinkedBlockingQueue<>();
+
+    /**
+     * The since parameter of every sync call, null for snapshots.
+     */
+    private final List<String> syncCalls = new CopyOnWriteArrayList<>();
+
+    private Function<String, Mono<ClientResponse>> sync;
+
+    /**
+     * Whether a new feed connection starts with the server's connected comment.
+     */
+    private volatile boolean announceConnections = true;
+
+    private ItemCatalogReplica replica;
+
+    @Before
+    public void setUp() {
+
+        WebClient webClient = WebClient.builder()
+                .exchangeFunction(this::exchange)
+                .build();
+
+        replica = new ItemCatalogReplica();
+        replica.webClient = webClient;
+        replica.itemWebClientFactory = mock(ItemWebClientFactory.class);
+        when(replica.itemWebClientFactory.createStreaming()).thenReturn(webClient);
+        replica.itemCallPolicies = mock(ItemCallPolicies.class);
+        doAnswer(invocation -> invocation.<Supplier<Mono<?>>>getArgument(1).get())
+                .when(replica.itemCallPolicies).executeRead(anyString(), any());
+        replica.meterRegistry = meterRegistry;
+        replica.mediaType = MediaType.APPLICATION_JSON;
+        replica.enabled = true;
+        replica.maxStaleness = Duration.ofSeconds(30);
+        replica.pageSize = 2;
+        replica.minBackoff = Duration.ofMillis(10);
+        replica.maxBackoff = Duration.ofMillis(50);
+        replica.init();
+    }
+
+    @After
+    public void tearDown() {
+
+        replica.stop();
+    }
+
+    @Test
+    public void bootstrapsFromASnapshot() {
+
+        sync = since -> since == null
+                ? page(true, "t1", changed("A", 1.0), changed("B", 2.0))
+                : page(false, "t2", changed("C", 3.0));
+        replica.start();
+
+        awaitTrue(replica::isFresh);
+        assertEquals(Arrays.asList("A", "B", "C"), ids());
+        assertEquals(Arrays.asList(null, "t1"), syncCalls);
+        assertEquals(1.0, resyncs("snapshot"), 0.0);
+    }
+
+    @Test
+    public void catchesUpWithTheChangesSinceItsTokenAfterReconnecting() throws InterruptedException {
+
+        sync = since -> since == null
+                ? page(false, "t1", changed("A", 1.0), changed("B", 2.0))
+                : page(false, "t2", deleted("A"), changed("B", 2.5));
+        replica.start();
+        awaitTrue(replica::isFresh);
+
+        nextFeed().onComplete();
+
+        awaitTrue(() -> syncCalls.size() == 2 && replica.isFresh());
+        assertEquals("t1", syncCalls.get(1));
+        assertEquals(Arrays.asList("B"), ids());
+        assertEquals(Double.valueOf(2.5), replica.item("B").block().getPrice());
+        assertEquals(1.0, resyncs("delta"), 0.0);
+        assertEquals(1.0, resyncs("snapshot"), 0.0);
+    }
+
+    @Test
+    public void expiredTokenFallsBackToASnapshot() throws InterruptedException {
+
+        sync = since -> since == null
+                ? page(false, "t1", changed("A", 1.0), changed("B", 2.0))
+                : Mono.just(ClientResponse.create(HttpStatus.GONE).build());
+        replica.start();
+        awaitTrue(replica::isFresh);
+
+        sync = since -> since == null
+                ? page(false, "t3", changed("B", 2.0))
+                : Mono.just(ClientResponse.create(HttpStatus.GONE).build());
+        nextFeed().onComplete();
+
+        awaitTrue(() -> syncCalls.size() == 3 && replica.isFresh());
+        assertEquals(Arrays.asList(null, "t1", null), syncCalls);
+        assertEquals(Arrays.asList("B"), ids());
+        assertEquals(2.0, resyncs("snapshot"), 0.0);
+    }
+
+    @Test
+    public void invalidateForcesASnapshot() throws InterruptedException {
+
+        sync = since -> page(false, "t1", changed("A", 1.0));
+        replica.start();
+        awaitTrue(replica::isFresh);
+
+        sync = since -> page(false, "t2", changed("B", 2.0));
+        nextFeed().onNext(event(new ItemChange("invalidate", null, null, null, null)));
+
+        awaitTrue(() -> syncCalls.size() == 2 && replica.isFresh());
+        assertEquals(Arrays.asList(null, null), syncCalls);
+        assertEquals(Arrays.asList("B"), ids());
+    }
+
+    @Test
+    public void feedWinsOverWhatTheCatchUpRead() throws InterruptedException {
+
+        // the snapshot was read before the update, but arrives after it
+        sync = since -> Mono.delay(Duration.ofMillis(300))
+                .then(page(false, "t1", changed("A", 1.0), changed("B", 2.0)));
+        replica.start();
+
+        nextFeed().onNext(event(new ItemChange("update", "A", new Item("A", "A", 1.5), "r1", null)));
+
+        awaitTrue(replica::isFresh);
+        assertEquals(Double.valueOf(1.5), replica.item("A").block().getPrice());
+        assertEquals(Double.valueOf(2.0), replica.item("B").block().getPrice());
+    }
+
+    @Test
+    public void catchUpWaitsUntilTheFeedIsConnected() throws InterruptedException {
+
+        announceConnections = false;
+        sync = since -> page(false, "t1", changed("A", 1.0));
+        replica.start();
+        UnicastProcessor<String> feed = nextFeed();
+
+        Thread.sleep(200);
+        assertEquals(0, syncCalls.size());
+
+        feed.onNext(":connected\n\n");
+        awaitTrue(replica::isFresh);
+        assertEquals(Arrays.asList("A"), ids());
+    }
+
+    @Test
+    public void staleReplicaFallsBackToDirectCalls() throws InterruptedException {
+
+        sync = since -> page(false, "t1", changed("A", 1.0));
+        replica.start();
+        awaitTrue(replica::isFresh);
+        UnicastProcessor<String> feed = nextFeed();
+
+        assertEquals("replica", readSource());
+
+        replica.maxStaleness = Duration.ofMillis(200);
+        Thread.sleep(300);
+        assertFalse(replica.isFresh());
+        assertEquals("direct", readSource());
+
+        feed.onNext(":heartbeat\n\n");
+        awaitTrue(replica::isFresh);
+        assertEquals("replica", readSource());
+
+        assertEquals(2.0, meterRegistry.counter("item.client.replica.reads", "source", "replica").count(), 0.0);
+        assertEquals(1.0, meterRegistry.counter("item.client.replica.reads", "source", "direct").count(), 0.0);
+    }
+
+    private Mono<ClientResponse> exchange(ClientRequest request) {
+
+        if (request.url().getPath().equals("/v1/stream/items/changes")) {
+            UnicastProcessor<String> feed = UnicastProcessor.create();
+            if (announceConnections) {
+                feed.onNext(":connected\n\n");
+            }
+            feeds.add(feed);
+            Flux<DataBuffer> body = feed.map(text -> new DefaultDataBufferFactory().wrap(text.getBytes(StandardCharsets.UTF_8)));
+            return Mono.just(ClientResponse.create(HttpStatus.OK)
+                    .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_EVENT_STREAM_VALUE)
+                    .body(body)
+                    .build());
+        }
+        String since = UriComponentsBuilder.fromUri(request.url()).build().getQueryParams().getFirst("since");
+        syncCalls.add(since);
+        return sync.apply(since);
+    }
+
+    private UnicastProcessor<String> nextFeed() throws InterruptedException {
+
+        UnicastProcessor<String> feed = feeds.poll(5, TimeUnit.SECONDS);
+        assertNotNull("the replica never opened the change feed", feed);
+        return feed;
+    }
+
+    private Mono<ClientResponse> page(boolean more, String token, ItemSyncChange... changes) {
+
+        return Mono.just(ClientResponse.create(HttpStatus.OK)
+                .header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .body(json(new ItemSyncPage(Arrays.asList(changes), token, more)))
+                .build());
+    }
+
+    private String event(ItemChange change) {
+
+        return "data:" + json(change) + "\n\n";
+    }
+
+    private String json(Object value) {
+
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static ItemSyncChange changed(String id, double price) {
+
+        return new ItemSyncChange(id, false, new Item(id, id, price));
+    }
+
+    private static ItemSyncChange deleted(String id) {
+
+        return new ItemSyncChange(id, true, null);
+    }
+
+    private List<String> ids() {
+
+        return replica.items().map(Item::getId).collectList().block().stream()
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private String readSource() {
+
+        return replica.read(fromReplica -> Mono.just("replica"), Mono.just("direct")).block();
+    }
+
+    private double resyncs(String type) {
+
+        return meterRegistry.counter("item.client.replica.resyncs", "type", type).count();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > deadline) {
+                fail("condition not met within 5s");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+}
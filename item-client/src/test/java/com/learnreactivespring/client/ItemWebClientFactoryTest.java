@@ -0,0 +1,113 @@
+package com.learnreactivespring.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.netty.handler.timeout.ReadTimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.test.StepVerifier;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.assertEquals;
+
+public class ItemWebClientFactoryTest {
+
+    /**
+     * Client address of every request served, one per connection used.
+     */
+    private final Set<InetSocketAddress> connections = ConcurrentHashMap.newKeySet();
+
+    private DisposableServer server;
+
+    private ItemWebClientFactory factory;
+
+    @Before
+    public void setUp() {
+
+        server = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .get("/fast", (request, response) -> {
+                            connections.add(request.remoteAddress());
+                            return response.sendString(Mono.just("ok"));
+                        })
+                        .get("/slow", (request, response) -> response.sendString(
+                                Mono.delay(Duration.ofMillis(1500)).thenReturn("late")))
+                        .get("/trickle", (request, response) -> response.sendString(
+                                Flux.interval(Duration.ofMillis(200)).take(6).map(tick -> tick + "\n"))))
+                .bindNow();
+
+        factory = new ItemWebClientFactory();
+        factory.webClientBuilder = WebClient.builder();
+        factory.objectMapper = new ObjectMapper();
+        factory.baseUrl = "http://localhost:" + server.port();
+        factory.poolName = "factory-test";
+        factory.maxConnections = 1;
+        factory.pendingAcquireMaxCount = 10;
+        factory.pendingAcquireTimeout = Duration.ofSeconds(5);
+        factory.maxIdleTime = Duration.ofSeconds(30);
+        factory.maxLifeTime = Duration.ofMinutes(5);
+        factory.connectTimeout = Duration.ofSeconds(2);
+        factory.readTimeout = Duration.ofMillis(500);
+        factory.writeTimeout = Duration.ofMillis(500);
+        factory.responseTimeout = Duration.ofSeconds(5);
+        factory.compression = false;
+        factory.h2c = false;
+        factory.maxStreamConnections = 1;
+        factory.streamReadTimeout = Duration.ofSeconds(5);
+    }
+
+    @After
+    public void tearDown() {
+
+        factory.destroy();
+        server.disposeNow();
+    }
+
+    @Test
+    public void idleConnectionOutlivesReadTimeout() throws InterruptedException {
+
+        WebClient webClient = factory.create();
+
+        assertEquals("ok", get(webClient, "/fast").block());
+        Thread.sleep(1000);
+        assertEquals("ok", get(webClient, "/fast").block());
+
+        // the second call reused the pooled connection instead of finding it closed by the read timeout
+        assertEquals(1, connections.size());
+    }
+
+    @Test
+    public void slowResponseHitsReadTimeout() {
+
+        StepVerifier.create(get(factory.create(), "/slow"))
+                .expectErrorMatches(ex -> ex instanceof ReadTimeoutException || ex.getCause() instanceof ReadTimeoutException)
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void readTimeoutIsBetweenReadsNotForTheWholeResponse() {
+
+        // 1.2s in total, but never more than 200ms without data
+        StepVerifier.create(get(factory.create(), "/trickle"))
+                .expectNextMatches(body -> body.startsWith("0\n") && body.endsWith("5\n"))
+                .verifyComplete();
+    }
+
+    private static Mono<String> get(WebClient webClient, String uri) {
+
+        return webClient.get().uri(uri)
+                .retrieve()
+                .bodyToMono(String.class);
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.learnreactivespring.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryBudgetTest {
+
+    @Test
+    public void startsFullAndRunsDry() {
+
+        RetryBudget budget = new RetryBudget(0.5, 2);
+
+        assertTrue(budget.tryWithdraw());
+        assertTrue(budget.tryWithdraw());
+        assertFalse(budget.tryWithdraw());
+    }
+
+    @Test
+    public void successesEarnRetriesBack() {
+
+        RetryBudget budget = new RetryBudget(0.5, 2);
+        budget.tryWithdraw();
+        budget.tryWithdraw();
+
+        budget.deposit();
+        assertFalse(budget.tryWithdraw());
+        budget.deposit();
+        assertTrue(budget.tryWithdraw());
+    }
+
+    @Test
+    public void neverHoldsMoreThanMaxTokens() {
+
+        RetryBudget budget = new RetryBudget(0.5, 2);
+
+        for (int i = 0; i < 10; i++) {
+            budget.deposit();
+        }
+
+        assertEquals(2.0, budget.getTokens(), 0.0);
+    }
+
+}
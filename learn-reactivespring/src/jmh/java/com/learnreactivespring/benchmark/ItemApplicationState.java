@@ -0,0 +1,63 @@
+package com.learnreactivespring.benchmark;
+
+import com.learnreactivespring.LearnReactivespringApplication;
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+/**
+ * The application on embedded Mongo (test profile, so no data initializer or
+ * generator), seeded with {@link #ITEM_COUNT} items plus the "ABC" item the
+ * tests use. The WebTestClient is bound to the context, so requests go
+ * through the full WebFlux stack without a socket.
+ */
+@State(Scope.Benchmark)
+public class ItemApplicationState {
+
+    static final int ITEM_COUNT = 1000;
+
+    ConfigurableApplicationContext context;
+
+    WebTestClient webTestClient;
+
+    @Setup(Level.Trial)
+    public void start() {
+
+        context = new SpringApplicationBuilder(LearnReactivespringApplication.class)
+                .web(WebApplicationType.REACTIVE)
+                .profiles("test")
+                .properties("server.port=0", "logging.level.root=WARN")
+                .run();
+
+        ItemReactiveRepository itemReactiveRepository = context.getBean(ItemReactiveRepository.class);
+        itemReactiveRepository.deleteAll()
+                .thenMany(Flux.range(0, ITEM_COUNT).map(i -> new Item(null, "Random Item " + i, 100.0 + i)))
+                .concatWith(Flux.just(new Item("ABC", "Beats HeadPhones", 149.99)))
+                .buffer(500)
+                .concatMap(itemReactiveRepository::insert)
+                .blockLast();
+
+        webTestClient = WebTestClient.bindToApplicationContext(context).build();
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+
+        context.close();
+    }
+
+    <T> T getBean(Class<T> type) {
+
+        return context.getBean(type);
+    }
+
+}
@@ -0,0 +1,181 @@
+package com.learnreactivespring.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.document.ItemCapped;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.AbstractJackson2Decoder;
+import org.springframework.http.codec.json.AbstractJackson2Encoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.learnreactivespring.config.CodecConfig.APPLICATION_SMILE;
+
+/**
+ * Encode/decode cost of Item and ItemCapped through the same Spring codecs
+ * the endpoints use, per wire format. The encode benchmarks also report the
+ * encoded size as the {@code encodedBytes} auxiliary counter, so the payload
+ * saving can be read next to the timings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ItemCodecBenchmark {
+
+    private static final ResolvableType ITEM = ResolvableType.forClass(Item.class);
+    private static final ResolvableType ITEM_CAPPED = ResolvableType.forClass(ItemCapped.class);
+    private static final ResolvableType ITEM_LIST = ResolvableType.forClassWithGenerics(List.class, Item.class);
+
+    @Param({"json", "smile", "cbor"})
+    String format;
+
+    @Param({"100"})
+    int pageSize;
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    private AbstractJackson2Encoder encoder;
+    private AbstractJackson2Decoder decoder;
+    private MediaType mediaType;
+
+    private Item item;
+    private ItemCapped itemCapped;
+    private List<Item> page;
+    private byte[] encodedItem;
+    private byte[] encodedPage;
+
+    @Setup
+    public void setUp() {
+
+        switch (format) {
+            case "smile":
+                ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+                encoder = new Jackson2SmileEncoder(smileMapper);
+                decoder = new Jackson2SmileDecoder(smileMapper);
+                mediaType = APPLICATION_SMILE;
+                break;
+            case "cbor":
+                ObjectMapper cborMapper = Jackson2ObjectMapperBuilder.json().factory(new CBORFactory()).build();
+                encoder = new Jackson2CborEncoder(cborMapper);
+                decoder = new Jackson2CborDecoder(cborMapper);
+                mediaType = MediaType.APPLICATION_CBOR;
+                break;
+            default:
+                ObjectMapper jsonMapper = Jackson2ObjectMapperBuilder.json().build();
+                encoder = new Jackson2JsonEncoder(jsonMapper);
+                decoder = new Jackson2JsonDecoder(jsonMapper);
+                mediaType = MediaType.APPLICATION_JSON;
+        }
+
+        item = new Item(new ObjectId().toHexString(), "Samsung TV", 399.99);
+        itemCapped = new ItemCapped(new ObjectId().toHexString(), "Random Item 42", 142.0);
+        page = new ArrayList<>();
+        for (int i = 0; i < pageSize; i++) {
+            page.add(new Item(new ObjectId().toHexString(), "Random Item " + i, 100.0 + i));
+        }
+
+        encodedItem = toBytes(encoder.encodeValue(item, bufferFactory, ITEM, mediaType, Collections.emptyMap()));
+        encodedPage = toBytes(encoder.encodeValue(page, bufferFactory, ITEM_LIST, mediaType, Collections.emptyMap()));
+    }
+
+    /**
+     * Bytes written per encode call. JMH reports it per benchmark alongside
+     * the score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+
+        private long bytes;
+        private long calls;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            calls = 0;
+        }
+
+        public double encodedBytes() {
+            return calls == 0 ? 0 : (double) bytes / calls;
+        }
+
+        void record(DataBuffer buffer) {
+            bytes += buffer.readableByteCount();
+            calls++;
+        }
+    }
+
+    @Benchmark
+    public void encodeItem(Blackhole blackhole, EncodedSize encodedSize) {
+
+        release(blackhole, encodedSize, encoder.encodeValue(item, bufferFactory, ITEM, mediaType, Collections.emptyMap()));
+    }
+
+    @Benchmark
+    public void encodeItemCapped(Blackhole blackhole, EncodedSize encodedSize) {
+
+        release(blackhole, encodedSize, encoder.encodeValue(itemCapped, bufferFactory, ITEM_CAPPED, mediaType, Collections.emptyMap()));
+    }
+
+    @Benchmark
+    public void encodePage(Blackhole blackhole, EncodedSize encodedSize) {
+
+        release(blackhole, encodedSize, encoder.encodeValue(page, bufferFactory, ITEM_LIST, mediaType, Collections.emptyMap()));
+    }
+
+    @Benchmark
+    public Object decodeItem() {
+
+        return decoder.decode(bufferFactory.wrap(encodedItem), ITEM, mediaType, Collections.emptyMap());
+    }
+
+    @Benchmark
+    public Object decodePage() {
+
+        return decoder.decode(bufferFactory.wrap(encodedPage), ITEM_LIST, mediaType, Collections.emptyMap());
+    }
+
+    private static void release(Blackhole blackhole, EncodedSize encodedSize, DataBuffer buffer) {
+
+        encodedSize.record(buffer);
+        blackhole.consume(buffer.readableByteCount());
+        DataBufferUtils.release(buffer);
+    }
+
+    private static byte[] toBytes(DataBuffer buffer) {
+
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        DataBufferUtils.release(buffer);
+        return bytes;
+    }
+
+}
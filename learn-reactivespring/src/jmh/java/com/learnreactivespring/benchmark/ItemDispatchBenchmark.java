@@ -0,0 +1,57 @@
+package com.learnreactivespring.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.learnreactivespring.constants.ItemConstants.ITEM_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1;
+
+/**
+ * Same requests through ItemController and through ItemsRouter/ItemsHandler.
+ * getOneItem is served from the item cache after the first call, so the
+ * difference between the two styles is mostly dispatch and response writing;
+ * getAllItems adds a Mongo round trip and page encoding.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ItemDispatchBenchmark {
+
+    @Param({"annotated", "functional"})
+    String style;
+
+    private String endPoint() {
+
+        return "annotated".equals(style) ? ITEM_END_POINT_V1 : ITEM_FUNCTIONAL_END_POINT_V1;
+    }
+
+    @Benchmark
+    public byte[] getOneItem(ItemApplicationState state) {
+
+        return state.webTestClient.get().uri(endPoint() + "/{id}", "ABC")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .returnResult()
+                .getResponseBody();
+    }
+
+    @Benchmark
+    public byte[] getAllItems(ItemApplicationState state) {
+
+        return state.webTestClient.get().uri(endPoint() + "?limit=20")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .returnResult()
+                .getResponseBody();
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.learnreactivespring.benchmark;
+
+import com.learnreactivespring.codec.RawItemJsonWriter;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keyset page reads against embedded Mongo: mapped to Item objects versus
+ * raw BSON rendered straight to JSON buffers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ItemRepositoryBenchmark {
+
+    @Param({"20", "500"})
+    int limit;
+
+    private ItemReactiveRepository itemReactiveRepository;
+
+    private RawItemJsonWriter rawItemJsonWriter;
+
+    private final DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+
+    @Setup
+    public void setUp(ItemApplicationState state) {
+
+        itemReactiveRepository = state.getBean(ItemReactiveRepository.class);
+        rawItemJsonWriter = state.getBean(RawItemJsonWriter.class);
+    }
+
+    @Benchmark
+    public Object findPage() {
+
+        return itemReactiveRepository.findPageAfter(null, limit)
+                .collectList()
+                .block();
+    }
+
+    @Benchmark
+    public Object findRawPage() {
+
+        return rawItemJsonWriter.writeArray(itemReactiveRepository.findRawPageAfter(null, limit), bufferFactory)
+                .doOnNext(DataBufferUtils::release)
+                .count()
+                .block();
+    }
+
+}
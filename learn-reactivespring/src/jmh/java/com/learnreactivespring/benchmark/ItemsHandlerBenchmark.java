@@ -0,0 +1,90 @@
+package com.learnreactivespring.benchmark;
+
+import com.learnreactivespring.handler.ItemsHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+import org.springframework.mock.web.reactive.function.server.MockServerRequest;
+import org.springframework.mock.web.server.MockServerWebExchange;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.reactive.result.view.ViewResolver;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.learnreactivespring.constants.ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1;
+
+/**
+ * ItemsHandler on its own: building the ServerResponse and writing it to a
+ * mock exchange with the application's codecs, no routing or HTTP layer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ItemsHandlerBenchmark {
+
+    private ItemsHandler itemsHandler;
+
+    private ServerResponse.Context responseContext;
+
+    @Setup
+    public void setUp(ItemApplicationState state) {
+
+        itemsHandler = state.getBean(ItemsHandler.class);
+        List<HttpMessageWriter<?>> writers = state.getBean(ServerCodecConfigurer.class).getWriters();
+
+        responseContext = new ServerResponse.Context() {
+            @Override
+            public List<HttpMessageWriter<?>> messageWriters() {
+                return writers;
+            }
+
+            @Override
+            public List<ViewResolver> viewResolvers() {
+                return Collections.emptyList();
+            }
+        };
+    }
+
+    @Benchmark
+    public Object getOneItem() {
+
+        MockServerWebExchange exchange = MockServerWebExchange.from(
+                MockServerHttpRequest.get(ITEM_FUNCTIONAL_END_POINT_V1 + "/ABC"));
+        ServerRequest request = MockServerRequest.builder()
+                .exchange(exchange)
+                .pathVariable("id", "ABC")
+                .build();
+
+        itemsHandler.getOneItem(request)
+                .flatMap(response -> response.writeTo(exchange, responseContext))
+                .block();
+        return exchange.getResponse().getBodyAsString().block();
+    }
+
+    @Benchmark
+    public Object getAllItems() {
+
+        MockServerWebExchange exchange = MockServerWebExchange.from(
+                MockServerHttpRequest.get(ITEM_FUNCTIONAL_END_POINT_V1 + "?limit=20"));
+        ServerRequest request = MockServerRequest.builder()
+                .exchange(exchange)
+                .queryParam("limit", "20")
+                .build();
+
+        itemsHandler.getAllItems(request)
+                .flatMap(response -> response.writeTo(exchange, responseContext))
+                .block();
+        return exchange.getResponse().getBodyAsString().block();
+    }
+
+}
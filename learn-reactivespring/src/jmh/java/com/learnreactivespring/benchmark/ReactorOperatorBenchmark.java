@@ -0,0 +1,91 @@
+package com.learnreactivespring.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import reactor.core.publisher.Flux;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static reactor.core.scheduler.Schedulers.parallel;
+
+/**
+ * The operator chains from FluxAndMonoTransformTest, with the one second
+ * sleep in convertToList replaced by a fixed amount of CPU work so the
+ * numbers show operator and scheduling overhead.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReactorOperatorBenchmark {
+
+    @Param({"1000"})
+    int elements;
+
+    @Param({"10", "1000"})
+    long work;
+
+    @Param({"2", "64"})
+    int windowSize;
+
+    private List<String> convertToList(String s) {
+
+        Blackhole.consumeCPU(work);
+        return Arrays.asList(s, "newValue");
+    }
+
+    private Flux<String> source() {
+
+        return Flux.range(0, elements).map(String::valueOf);
+    }
+
+    @Benchmark
+    public Long flatMap() {
+
+        return source()
+                .flatMap(s -> Flux.fromIterable(convertToList(s)))
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long windowFlatMapParallel() {
+
+        return source()
+                .window(windowSize)
+                .flatMap(s -> s.map(this::convertToList).subscribeOn(parallel()))
+                .flatMap(Flux::fromIterable)
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long windowFlatMapSequentialParallel() {
+
+        return source()
+                .window(windowSize)
+                .flatMapSequential(s -> s.map(this::convertToList).subscribeOn(parallel()))
+                .flatMap(Flux::fromIterable)
+                .count()
+                .block();
+    }
+
+    @Benchmark
+    public Long windowConcatMap() {
+
+        return source()
+                .window(windowSize)
+                .concatMap(s -> s.map(this::convertToList))
+                .flatMap(Flux::fromIterable)
+                .count()
+                .block();
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.learnreactivespring.loadtest;
+
+import com.learnreactivespring.LearnReactivespringApplication;
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+
+/**
+ * Starts LearnReactivespringApplication on a random port against embedded
+ * Mongo, seeds items and the capped collection, runs a warmup and then the
+ * measured phase, and writes the report. See {@link LoadTestSettings} for
+ * the knobs; {@code ./gradlew loadTest} runs it.
+ */
+@Slf4j
+public class ItemLoadTest {
+
+    public static void main(String[] args) throws IOException {
+
+        LoadTestSettings settings = LoadTestSettings.fromSystemProperties();
+
+        ConfigurableApplicationContext context = new SpringApplicationBuilder(LearnReactivespringApplication.class)
+                .profiles("test")
+                .properties("server.port=0", "item.stream.grace-period=5s", "logging.level.root=WARN")
+                .run(args);
+        try {
+            seed(context, settings.getItems());
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            LoadRunner loadRunner = new LoadRunner(settings, port);
+            try {
+                log.info("Warming up for {}", settings.getWarmup());
+                loadRunner.run(settings.getWarmup());
+
+                log.info("Running {} req/s for {}", settings.getRate(), settings.getDuration());
+                loadRunner.run(settings.getDuration()).write(settings.getReportDir());
+                log.info("Report written to {}", settings.getReportDir().toAbsolutePath());
+            } finally {
+                loadRunner.close();
+            }
+        } finally {
+            context.close();
+        }
+    }
+
+    private static void seed(ConfigurableApplicationContext context, int items) {
+
+        ItemReactiveRepository itemReactiveRepository = context.getBean(ItemReactiveRepository.class);
+        ReactiveMongoOperations mongoOperations = context.getBean(ReactiveMongoOperations.class);
+
+        itemReactiveRepository.deleteAll()
+                .thenMany(Flux.range(0, items).map(i -> new Item(null, "Random Item " + i, 100.0 + i)))
+                .concatWith(Flux.just(new Item("ABC", "Beats HeadPhones", 149.99)))
+                .buffer(500)
+                .concatMap(itemReactiveRepository::insert)
+                .blockLast();
+
+        mongoOperations.dropCollection(ItemCapped.class)
+                .then(mongoOperations.createCollection(ItemCapped.class,
+                        CollectionOptions.empty().maxDocuments(20).size(50000).capped()))
+                .thenMany(Flux.range(0, 20).map(i -> new ItemCapped(null, "Random Item " + i, 100.0 + i)))
+                .concatMap(mongoOperations::insert)
+                .blockLast();
+    }
+
+}
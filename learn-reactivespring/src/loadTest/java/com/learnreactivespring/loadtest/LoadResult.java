@@ -0,0 +1,77 @@
+package com.learnreactivespring.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes report.json (settings plus per-scenario summary), report.txt (the
+ * same as a table) and one HdrHistogram .hgrm file per scenario.
+ */
+public class LoadResult {
+
+    private final LoadTestSettings settings;
+    private final double seconds;
+    private final long maxScheduleLagNanos;
+    private final Collection<ScenarioStats> stats;
+
+    public LoadResult(LoadTestSettings settings, double seconds, long maxScheduleLagNanos, Collection<ScenarioStats> stats) {
+        this.settings = settings;
+        this.seconds = seconds;
+        this.maxScheduleLagNanos = maxScheduleLagNanos;
+        this.stats = stats;
+    }
+
+    public void write(Path reportDir) throws IOException {
+
+        Files.createDirectories(reportDir);
+
+        List<Map<String, Object>> scenarios = new ArrayList<>();
+        stats.forEach(scenarioStats -> scenarios.add(scenarioStats.summary(seconds)));
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("rate", settings.getRate());
+        report.put("durationSeconds", seconds);
+        report.put("connections", settings.getConnections());
+        report.put("maxScheduleLagMillis", maxScheduleLagNanos / 1_000_000.0);
+        report.put("scenarios", scenarios);
+
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT)
+                .writeValue(reportDir.resolve("report.json").toFile(), report);
+
+        try (PrintStream out = new PrintStream(reportDir.resolve("report.txt").toFile(), "UTF-8")) {
+            print(out, scenarios);
+        }
+        print(System.out, scenarios);
+
+        for (ScenarioStats scenarioStats : stats) {
+            try (PrintStream out = new PrintStream(reportDir.resolve(scenarioStats.getScenario().getKey() + ".hgrm").toFile(), "UTF-8")) {
+                scenarioStats.writeDistribution(out);
+            }
+        }
+    }
+
+    private void print(PrintStream out, List<Map<String, Object>> scenarios) {
+
+        out.printf("Offered rate %.0f req/s for %.1fs over %d connections, generator lag max %.1fms%n",
+                settings.getRate(), seconds, settings.getConnections(), maxScheduleLagNanos / 1_000_000.0);
+        out.printf("%-12s %9s %7s %7s %10s %9s %9s %9s %9s%n",
+                "scenario", "requests", "errors", "dropped", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (Map<String, Object> scenario : scenarios) {
+            out.printf("%-12s %9d %7d %7d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+                    scenario.get("scenario"), scenario.get("requests"), scenario.get("errors"), scenario.get("dropped"),
+                    scenario.get("throughput"), scenario.get("p50Millis"), scenario.get("p99Millis"),
+                    scenario.get("p999Millis"), scenario.get("maxMillis"));
+        }
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.learnreactivespring.loadtest;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Open-loop load generator. Requests are sent on a fixed schedule whether or
+ * not earlier ones have completed, and latency is measured from the time a
+ * request was due rather than when it actually went out. A slow server or a
+ * late generator tick therefore shows up as latency instead of silently
+ * lowering the offered rate (no coordinated omission).
+ * <p>
+ * Holds its own connection pool; close the runner when done with it.
+ */
+@Slf4j
+public class LoadRunner implements AutoCloseable {
+
+    private final LoadTestSettings settings;
+
+    private final ConnectionProvider connectionProvider;
+
+    private final HttpClient httpClient;
+
+    public LoadRunner(LoadTestSettings settings, int port) {
+
+        this.settings = settings;
+        this.connectionProvider = ConnectionProvider.builder("load-test")
+                .maxConnections(settings.getConnections())
+                .pendingAcquireMaxCount(-1)
+                .build();
+        this.httpClient = HttpClient.create(connectionProvider)
+                .baseUrl("http://localhost:" + port);
+    }
+
+    public LoadResult run(Duration duration) {
+
+        long periodNanos = (long) (1_000_000_000L / settings.getRate());
+        long total = (long) (settings.getRate() * duration.toNanos() / 1_000_000_000L);
+        List<LoadScenario> schedule = settings.getSchedule();
+
+        Map<LoadScenario, ScenarioStats> stats = new EnumMap<>(LoadScenario.class);
+        schedule.forEach(scenario -> stats.computeIfAbsent(scenario, ScenarioStats::new));
+
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicLong maxScheduleLag = new AtomicLong();
+        long start = System.nanoTime();
+
+        Flux.interval(Duration.ofNanos(periodNanos))
+                .take(total)
+                .flatMap(tick -> {
+                    long intended = start + (tick + 1) * periodNanos;
+                    maxScheduleLag.accumulateAndGet(System.nanoTime() - intended, Math::max);
+
+                    ScenarioStats scenarioStats = stats.get(schedule.get((int) (tick % schedule.size())));
+                    if (inFlight.incrementAndGet() > settings.getMaxInFlight()) {
+                        inFlight.decrementAndGet();
+                        scenarioStats.recordDropped();
+                        return Mono.empty();
+                    }
+                    return send(scenarioStats.getScenario())
+                            .doOnNext(status -> {
+                                if (status >= 200 && status < 300) {
+                                    scenarioStats.recordSuccess(System.nanoTime() - intended);
+                                } else {
+                                    scenarioStats.recordError(System.nanoTime() - intended);
+                                }
+                            })
+                            .onErrorResume(ex -> {
+                                scenarioStats.recordError(System.nanoTime() - intended);
+                                return Mono.empty();
+                            })
+                            .doFinally(signal -> inFlight.decrementAndGet());
+                }, Integer.MAX_VALUE)
+                .blockLast();
+
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        log.info("Sent {} requests in {}s, generator fell behind by at most {}ms",
+                total, seconds, maxScheduleLag.get() / 1_000_000);
+
+        return new LoadResult(settings, seconds, maxScheduleLag.get(), stats.values());
+    }
+
+    @Override
+    public void close() {
+
+        connectionProvider.disposeLater().block();
+    }
+
+    /**
+     * Emits the response status once the body has been read, or, for
+     * streams, once the first chunk has arrived.
+     */
+    private Mono<Integer> send(LoadScenario scenario) {
+
+        HttpClient.ResponseReceiver<?> request = httpClient
+                .headers(headers -> headers.set(HttpHeaderNames.ACCEPT, scenario.getAccept().toString()))
+                .get()
+                .uri(scenario.getUri());
+
+        if (scenario.isStreaming()) {
+            return request
+                    .response((response, body) -> body.take(1)
+                            .map(chunk -> response.status().code())
+                            .defaultIfEmpty(response.status().code()))
+                    .next();
+        }
+        return request
+                .responseSingle((response, body) -> body.asByteArray()
+                        .map(bytes -> response.status().code())
+                        .defaultIfEmpty(response.status().code()));
+    }
+
+}
@@ -0,0 +1,62 @@
+package com.learnreactivespring.loadtest;
+
+import org.springframework.http.MediaType;
+
+import static com.learnreactivespring.constants.ItemConstants.ITEM_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_STREAM_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_STREAM_FUNCTIONAL_END_POINT_V1;
+
+/**
+ * Request types the load test can mix. For the stream endpoints a request is
+ * "open the stream and wait for the first item", then cancel, which is what
+ * connecting subscribers cost the server.
+ */
+public enum LoadScenario {
+
+    ITEMS("items", ITEM_END_POINT_V1 + "?limit=20", MediaType.APPLICATION_JSON, false),
+    FUN_ITEMS("fun-items", ITEM_FUNCTIONAL_END_POINT_V1 + "?limit=20", MediaType.APPLICATION_JSON, false),
+    ITEM("item", ITEM_END_POINT_V1 + "/ABC", MediaType.APPLICATION_JSON, false),
+    FUN_ITEM("fun-item", ITEM_FUNCTIONAL_END_POINT_V1 + "/ABC", MediaType.APPLICATION_JSON, false),
+    STREAM("stream", ITEM_STREAM_END_POINT_V1, MediaType.APPLICATION_STREAM_JSON, true),
+    FUN_STREAM("fun-stream", ITEM_STREAM_FUNCTIONAL_END_POINT_V1, MediaType.APPLICATION_STREAM_JSON, true);
+
+    private final String key;
+    private final String uri;
+    private final MediaType accept;
+    private final boolean streaming;
+
+    LoadScenario(String key, String uri, MediaType accept, boolean streaming) {
+        this.key = key;
+        this.uri = uri;
+        this.accept = accept;
+        this.streaming = streaming;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getUri() {
+        return uri;
+    }
+
+    public MediaType getAccept() {
+        return accept;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public static LoadScenario fromKey(String key) {
+
+        for (LoadScenario scenario : values()) {
+            if (scenario.key.equals(key)) {
+                return scenario;
+            }
+        }
+        throw new IllegalArgumentException("Unknown scenario " + key);
+    }
+
+}
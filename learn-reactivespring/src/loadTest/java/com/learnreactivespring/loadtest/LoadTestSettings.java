@@ -0,0 +1,59 @@
+package com.learnreactivespring.loadtest;
+
+import lombok.Data;
+import org.springframework.boot.convert.DurationStyle;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Load test parameters, read from {@code loadtest.*} system properties.
+ * The mix is a weighted list such as {@code items:4,fun-items:4,stream:1};
+ * requests are assigned to scenarios round-robin by weight, so runs are
+ * repeatable.
+ */
+@Data
+public class LoadTestSettings {
+
+    private double rate;
+    private Duration duration;
+    private Duration warmup;
+    private List<LoadScenario> schedule;
+    private int connections;
+    private int maxInFlight;
+    private int items;
+    private Path reportDir;
+
+    public static LoadTestSettings fromSystemProperties() {
+
+        LoadTestSettings settings = new LoadTestSettings();
+        settings.setRate(Double.parseDouble(System.getProperty("loadtest.rate", "200")));
+        settings.setDuration(DurationStyle.detectAndParse(System.getProperty("loadtest.duration", "30s")));
+        settings.setWarmup(DurationStyle.detectAndParse(System.getProperty("loadtest.warmup", "10s")));
+        settings.setSchedule(schedule(System.getProperty("loadtest.mix", "items:4,fun-items:4,stream:1,fun-stream:1")));
+        settings.setConnections(Integer.parseInt(System.getProperty("loadtest.connections", "64")));
+        settings.setMaxInFlight(Integer.parseInt(System.getProperty("loadtest.max-in-flight", "10000")));
+        settings.setItems(Integer.parseInt(System.getProperty("loadtest.items", "1000")));
+        settings.setReportDir(Paths.get(System.getProperty("loadtest.report", "build/reports/load-test")));
+        return settings;
+    }
+
+    private static List<LoadScenario> schedule(String mix) {
+
+        List<LoadScenario> schedule = new ArrayList<>();
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+            schedule.addAll(Collections.nCopies(weight, LoadScenario.fromKey(parts[0])));
+        }
+        if (schedule.isEmpty()) {
+            throw new IllegalArgumentException("loadtest.mix has no scenarios");
+        }
+        return schedule;
+    }
+
+}
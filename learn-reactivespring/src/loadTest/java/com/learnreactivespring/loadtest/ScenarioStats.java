@@ -0,0 +1,84 @@
+package com.learnreactivespring.loadtest;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies of one scenario, in nanoseconds from the intended send time.
+ */
+public class ScenarioStats {
+
+    private final LoadScenario scenario;
+
+    private final Histogram histogram = new ConcurrentHistogram(TimeUnit.SECONDS.toNanos(1), 3);
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    public ScenarioStats(LoadScenario scenario) {
+        this.scenario = scenario;
+        histogram.setAutoResize(true);
+    }
+
+    public void recordSuccess(long latencyNanos) {
+
+        histogram.recordValue(latencyNanos);
+    }
+
+    /**
+     * Failed requests still count towards the latency: the caller waited that
+     * long for an answer.
+     */
+    public void recordError(long latencyNanos) {
+
+        errors.incrementAndGet();
+        histogram.recordValue(latencyNanos);
+    }
+
+    public void recordDropped() {
+
+        dropped.incrementAndGet();
+    }
+
+    public LoadScenario getScenario() {
+        return scenario;
+    }
+
+    public Map<String, Object> summary(double seconds) {
+
+        Map<String, Object> summary = new LinkedHashMap<>();
+        summary.put("scenario", scenario.getKey());
+        summary.put("uri", scenario.getUri());
+        summary.put("requests", histogram.getTotalCount());
+        summary.put("errors", errors.get());
+        summary.put("dropped", dropped.get());
+        summary.put("throughput", histogram.getTotalCount() / seconds);
+        summary.put("meanMillis", histogram.getMean() / 1_000_000.0);
+        summary.put("p50Millis", millisAt(50.0));
+        summary.put("p99Millis", millisAt(99.0));
+        summary.put("p999Millis", millisAt(99.9));
+        summary.put("maxMillis", histogram.getMaxValue() / 1_000_000.0);
+        return summary;
+    }
+
+    private double millisAt(double percentile) {
+
+        return histogram.getValueAtPercentile(percentile) / 1_000_000.0;
+    }
+
+    /**
+     * Full distribution in HdrHistogram's .hgrm format, in milliseconds.
+     */
+    public void writeDistribution(PrintStream out) {
+
+        histogram.outputPercentileDistribution(out, 1_000_000.0);
+    }
+
+}
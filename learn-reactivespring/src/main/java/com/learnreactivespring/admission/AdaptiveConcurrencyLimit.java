@@ -0,0 +1,97 @@
+package com.learnreactivespring.admission;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrency limit that follows latency, in the style of the gradient
+ * limiters: every {@code windowSize} completions the average latency of the
+ * window is compared with a long-term average. While they match the limit
+ * grows by about sqrt(limit) per window; once requests start queueing and
+ * the window gets slower, the limit shrinks in proportion (by at most half
+ * per window). Windows where the limit was not nearly used are ignored, so
+ * an idle service does not talk itself into an unbounded limit.
+ */
+public class AdaptiveConcurrencyLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int windowSize;
+    private final double tolerance;
+    private final double smoothing;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile double limit;
+
+    private double longRtt;
+    private long windowRttSum;
+    private int windowSamples;
+    private int windowMaxInFlight;
+
+    public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit,
+                                    int windowSize, double tolerance, double smoothing) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.windowSize = windowSize;
+        this.tolerance = tolerance;
+        this.smoothing = smoothing;
+    }
+
+    public boolean tryAcquire() {
+
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void release(long rttNanos) {
+
+        int inFlightBefore = inFlight.getAndDecrement();
+        sample(rttNanos, inFlightBefore);
+    }
+
+    private synchronized void sample(long rttNanos, int inFlightBefore) {
+
+        windowRttSum += rttNanos;
+        windowMaxInFlight = Math.max(windowMaxInFlight, inFlightBefore);
+        if (++windowSamples < windowSize) {
+            return;
+        }
+
+        double shortRtt = windowRttSum / (double) windowSamples;
+        boolean applicationLimited = windowMaxInFlight < limit / 2;
+        windowRttSum = 0;
+        windowSamples = 0;
+        windowMaxInFlight = 0;
+
+        longRtt = longRtt == 0 ? shortRtt : longRtt * 0.95 + shortRtt * 0.05;
+        if (longRtt / shortRtt > 2) {
+            // latency dropped for good, e.g. after a slow start; catch up faster
+            longRtt *= 0.95;
+        }
+        if (applicationLimited) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longRtt / shortRtt));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+        newLimit = limit * (1 - smoothing) + newLimit * smoothing;
+        limit = Math.max(minLimit, Math.min(maxLimit, newLimit));
+    }
+
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+}
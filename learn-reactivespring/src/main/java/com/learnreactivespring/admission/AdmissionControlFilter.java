@@ -0,0 +1,193 @@
+package com.learnreactivespring.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.learnreactivespring.constants.ItemConstants.ITEM_BATCH_GET_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_BATCH_GET_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_STREAM_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_STREAM_FUNCTIONAL_END_POINT_V1;
+
+/**
+ * Admission control for the item routes of both programming models. Reads
+ * and writes each get an {@link AdaptiveConcurrencyLimit}; streams, which
+ * stay open for as long as the client listens, get a fixed cap on concurrent
+ * subscribers per node. Requests over the limit are answered straight away
+ * with 503 and a Retry-After header instead of queueing on the Mongo
+ * connection pool. The latency a limit adapts to is measured up to the
+ * response being committed, not to the end of its body.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+@Slf4j
+public class AdmissionControlFilter implements WebFilter, MeterBinder {
+
+    public enum RouteGroup { READS, WRITES, STREAMS }
+
+    @Value("${item.admission.enabled:true}")
+    boolean enabled;
+
+    @Value("${item.admission.reads.initial-limit:100}")
+    int readsInitialLimit;
+
+    @Value("${item.admission.writes.initial-limit:50}")
+    int writesInitialLimit;
+
+    @Value("${item.admission.min-limit:10}")
+    int minLimit;
+
+    @Value("${item.admission.max-limit:1000}")
+    int maxLimit;
+
+    @Value("${item.admission.window-size:50}")
+    int windowSize;
+
+    @Value("${item.admission.tolerance:1.5}")
+    double tolerance;
+
+    @Value("${item.admission.smoothing:0.2}")
+    double smoothing;
+
+    @Value("${item.admission.streams.max-subscribers:1000}")
+    int maxStreamSubscribers;
+
+    @Value("${item.admission.retry-after:1s}")
+    Duration retryAfter;
+
+    private final Map<RouteGroup, AdaptiveConcurrencyLimit> limits = new EnumMap<>(RouteGroup.class);
+
+    private final AtomicInteger streamSubscribers = new AtomicInteger();
+
+    private final Map<RouteGroup, Counter> rejected = new EnumMap<>(RouteGroup.class);
+
+    @PostConstruct
+    public void init() {
+
+        limits.put(RouteGroup.READS, new AdaptiveConcurrencyLimit(readsInitialLimit, minLimit, maxLimit, windowSize, tolerance, smoothing));
+        limits.put(RouteGroup.WRITES, new AdaptiveConcurrencyLimit(writesInitialLimit, minLimit, maxLimit, windowSize, tolerance, smoothing));
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+
+        RouteGroup group = enabled ? classify(exchange.getRequest()) : null;
+        if (group == null) {
+            return chain.filter(exchange);
+        }
+
+        if (group == RouteGroup.STREAMS) {
+            if (streamSubscribers.incrementAndGet() > maxStreamSubscribers) {
+                streamSubscribers.decrementAndGet();
+                return reject(exchange, group);
+            }
+            return chain.filter(exchange)
+                    .doFinally(signal -> streamSubscribers.decrementAndGet());
+        }
+
+        AdaptiveConcurrencyLimit limit = limits.get(group);
+        if (!limit.tryAcquire()) {
+            return reject(exchange, group);
+        }
+        long start = System.nanoTime();
+        AtomicLong rtt = new AtomicLong(-1);
+        // NDJSON bulk writes and batch reads stay open while results stream out, so latency is sampled at commit
+        exchange.getResponse().beforeCommit(() -> {
+            rtt.compareAndSet(-1, System.nanoTime() - start);
+            return Mono.empty();
+        });
+
+        return chain.filter(exchange)
+                .doFinally(signal -> limit.release(rtt.get() >= 0 ? rtt.get() : System.nanoTime() - start));
+    }
+
+    private Mono<Void> reject(ServerWebExchange exchange, RouteGroup group) {
+
+        Counter counter = rejected.get(group);
+        if (counter != null) {
+            counter.increment();
+        }
+        log.debug("Rejected {} {} : {} over limit", exchange.getRequest().getMethod(), exchange.getRequest().getPath(), group);
+
+        exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        exchange.getResponse().getHeaders().set(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, retryAfter.getSeconds())));
+        return exchange.getResponse().setComplete();
+    }
+
+    static RouteGroup classify(ServerHttpRequest request) {
+
+        String path = request.getPath().pathWithinApplication().value();
+
+        if (isUnder(path, ITEM_STREAM_END_POINT_V1) || isUnder(path, ITEM_STREAM_FUNCTIONAL_END_POINT_V1)) {
+            return RouteGroup.STREAMS;
+        }
+        if (!isUnder(path, ITEM_END_POINT_V1) && !isUnder(path, ITEM_FUNCTIONAL_END_POINT_V1)) {
+            return null;
+        }
+        if (request.getMethod() == HttpMethod.GET || request.getMethod() == HttpMethod.HEAD
+                || path.equals(ITEM_BATCH_GET_END_POINT_V1) || path.equals(ITEM_BATCH_GET_FUNCTIONAL_END_POINT_V1)) {
+            return RouteGroup.READS;
+        }
+        return RouteGroup.WRITES;
+    }
+
+    private static boolean isUnder(String path, String endPoint) {
+
+        return path.equals(endPoint) || path.startsWith(endPoint + "/");
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+
+        limits.forEach((group, limit) -> {
+            String tag = group.name().toLowerCase();
+            Gauge.builder("item.admission.limit", limit, AdaptiveConcurrencyLimit::getLimit)
+                    .description("Current concurrency limit of the route group")
+                    .tag("group", tag)
+                    .register(registry);
+            Gauge.builder("item.admission.inflight", limit, AdaptiveConcurrencyLimit::getInFlight)
+                    .description("Requests of the route group being served")
+                    .tag("group", tag)
+                    .register(registry);
+        });
+        Gauge.builder("item.admission.limit", () -> maxStreamSubscribers)
+                .description("Current concurrency limit of the route group")
+                .tag("group", "streams")
+                .register(registry);
+        Gauge.builder("item.admission.inflight", streamSubscribers, AtomicInteger::get)
+                .description("Requests of the route group being served")
+                .tag("group", "streams")
+                .register(registry);
+
+        for (RouteGroup group : RouteGroup.values()) {
+            rejected.put(group, Counter.builder("item.admission.rejected")
+                    .description("Requests turned away with 503")
+                    .tag("group", group.name().toLowerCase())
+                    .register(registry));
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package com.learnreactivespring.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.domain.ItemChange;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import com.learnreactivespring.stream.ItemChangeStream;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Read-through cache for item lookups by id. Concurrent misses for the same id
+ * share one in-flight findById, and empty results are not cached.
+ * Hit, miss and eviction counts are published as the "items" cache metrics.
+ * <p>
+ * Writes through this node evict their id. Writes through other nodes only
+ * reach it through the change stream ({@code item.changes.enabled}, on in
+ * the prod profile); without it they show up once the entry expires after
+ * {@code item.cache.expire-after-write}.
+ */
+@Component
+@Slf4j
+public class ItemCache implements MeterBinder {
+
+    @Autowired
+    ItemReactiveRepository itemReactiveRepository;
+
+    @Autowired
+    ItemChangeStream itemChangeStream;
+
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final AsyncCache<String, Item> cache;
+
+    /**
+     * Evictions per stripe of ids, so a lookup can tell whether its id was
+     * evicted while it was being loaded.
+     */
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+
+    public ItemCache(@Value("${item.cache.maximum-size:10000}") long maximumSize,
+                     @Value("${item.cache.expire-after-write:30s}") Duration expireAfterWrite) {
+
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .buildAsync();
+    }
+
+    /**
+     * A value that was read before a write to its id was evicted is dropped
+     * from the cache again, so it cannot outlive the eviction.
+     */
+    public Mono<Item> findById(String id) {
+
+        return Mono.defer(() -> {
+            long generation = generations.get(stripe(id));
+            CompletableFuture<Item> item = cache.get(id, (key, executor) -> itemReactiveRepository.findById(key).toFuture());
+            return Mono.fromFuture(item)
+                    .doOnNext(found -> {
+                        if (generations.get(stripe(id)) != generation) {
+                            cache.asMap().remove(id, item);
+                        }
+                    });
+        });
+    }
+
+    public void evict(String id) {
+
+        if (id != null) {
+            generations.incrementAndGet(stripe(id));
+            cache.synchronous().invalidate(id);
+        }
+    }
+
+    private static int stripe(String id) {
+
+        return id.hashCode() & (GENERATION_STRIPES - 1);
+    }
+
+    /**
+     * Keeps nodes coherent with each other: writes made through any node
+     * reach every cache through the shared change stream.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void listenForChanges() {
+
+        if (!itemChangeStream.isEnabled()) {
+            log.warn("Item change stream is disabled: the item cache only sees writes made through other nodes once entries expire");
+            return;
+        }
+        itemChangeStream.changes()
+                .subscribe(this::onChange);
+    }
+
+    private void onChange(ItemChange change) {
+
+        String id = change.getId();
+        if (id == null) {
+            log.info("Item collection changed ({}), clearing the item cache", change.getOperationType());
+            for (int stripe = 0; stripe < GENERATION_STRIPES; stripe++) {
+                generations.incrementAndGet(stripe);
+            }
+            cache.synchronous().invalidateAll();
+        } else {
+            evict(id);
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+
+        CaffeineCacheMetrics.monitor(registry, cache.synchronous(), "items");
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.learnreactivespring.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * JSON encoder that writes a Flux as a JSON array element by element, the
+ * way {@link RawItemJsonWriter} does for raw documents. Jackson's own encoder
+ * collects the whole Flux into a list first, so a large listing is held in
+ * memory before the first byte is sent. Single values and the streaming
+ * media types (NDJSON) are left to Jackson.
+ * <p>
+ * The response is committed with the first element, so a failure later on
+ * can only cut the array short instead of becoming an error response.
+ */
+public class JsonArrayEncoder extends Jackson2JsonEncoder {
+
+    private static final byte[] START = "[".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] SEPARATOR = ",".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] END = "]".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] EMPTY = "[]".getBytes(StandardCharsets.UTF_8);
+
+    public JsonArrayEncoder(ObjectMapper objectMapper, MimeType... mimeTypes) {
+        super(objectMapper, mimeTypes);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                   ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+
+        if (inputStream instanceof Mono || isStreaming(mimeType)) {
+            return super.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+        }
+
+        return Flux.defer(() -> {
+            AtomicBoolean empty = new AtomicBoolean(true);
+            return Flux.from(inputStream)
+                    .concatMapIterable(value -> Arrays.asList(
+                            bufferFactory.wrap(empty.getAndSet(false) ? START : SEPARATOR),
+                            encodeValue(value, bufferFactory, elementType, mimeType, hints)))
+                    .concatWith(Mono.fromCallable(() -> bufferFactory.wrap(empty.get() ? EMPTY : END)))
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+        });
+    }
+
+    private boolean isStreaming(MimeType mimeType) {
+
+        return mimeType != null && getStreamingMediaTypes().stream()
+                .anyMatch(streamingMediaType -> streamingMediaType.isCompatibleWith(mimeType));
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.learnreactivespring.codec;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Renders raw item documents straight into response buffers as the same JSON
+ * Jackson produces for {@link com.learnreactivespring.document.Item}, without
+ * decoding them into objects first. Fields are written in Item's declaration
+ * order and missing fields as null, like the POJO serializer does.
+ */
+@Component
+public class RawItemJsonWriter {
+
+    private static final int ESTIMATED_ITEM_SIZE = 128;
+
+    private static final JsonWriterSettings RELAXED = JsonWriterSettings.builder().outputMode(JsonMode.RELAXED).build();
+
+    private final JsonFactory jsonFactory;
+
+    public RawItemJsonWriter(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.getFactory();
+    }
+
+    /**
+     * Writes the documents as one JSON array, each as soon as it is read.
+     */
+    public Flux<DataBuffer> writeArray(Flux<RawBsonDocument> documents, DataBufferFactory bufferFactory) {
+
+        return Flux.defer(() -> {
+            AtomicBoolean empty = new AtomicBoolean(true);
+            return documents
+                    .map(document -> write(document, empty.getAndSet(false) ? '[' : ',', bufferFactory))
+                    .concatWith(Mono.fromCallable(() -> bufferFactory.wrap((empty.get() ? "[]" : "]").getBytes(StandardCharsets.UTF_8))))
+                    .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+        });
+    }
+
+    /**
+     * The id as the String Item holds: ObjectIds as hex, strings as they
+     * are, and any other type (numbers, mostly) as its relaxed extended JSON
+     * text, which is what the mapping layer's toString conversion gives for
+     * numbers too.
+     */
+    public static String idOf(RawBsonDocument document) {
+
+        return idOf(document.get("_id"));
+    }
+
+    public static String idOf(BsonValue id) {
+
+        if (id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        if (id.isString()) {
+            return id.asString().getValue();
+        }
+        String json = new BsonDocument("_id", id).toJson(RELAXED);
+        return json.substring(json.indexOf(':') + 1, json.lastIndexOf('}')).trim();
+    }
+
+    private DataBuffer write(RawBsonDocument document, char prefix, DataBufferFactory bufferFactory) {
+
+        DataBuffer buffer = bufferFactory.allocateBuffer(ESTIMATED_ITEM_SIZE);
+        try (JsonGenerator generator = jsonFactory.createGenerator(buffer.asOutputStream(), JsonEncoding.UTF8)) {
+            generator.writeRaw(prefix);
+            generator.writeStartObject();
+            writeId(generator, document);
+            writeString(generator, "description", document.get("description"));
+            writeDouble(generator, "price", document.get("price"));
+            generator.writeEndObject();
+        } catch (IOException ex) {
+            DataBufferUtils.release(buffer);
+            throw new UncheckedIOException(ex);
+        }
+        return buffer;
+    }
+
+    private void writeId(JsonGenerator generator, RawBsonDocument document) throws IOException {
+
+        generator.writeFieldName("id");
+        generator.writeString(idOf(document));
+    }
+
+    private void writeString(JsonGenerator generator, String field, BsonValue value) throws IOException {
+
+        generator.writeFieldName(field);
+        if (value == null || value.isNull()) {
+            generator.writeNull();
+        } else {
+            generator.writeString(value.asString().getValue());
+        }
+    }
+
+    private void writeDouble(JsonGenerator generator, String field, BsonValue value) throws IOException {
+
+        generator.writeFieldName(field);
+        if (value == null || value.isNull()) {
+            generator.writeNull();
+        } else {
+            generator.writeNumber(value.asNumber().doubleValue());
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+package com.learnreactivespring.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.learnreactivespring.codec.CborArrayEncoder;
+import com.learnreactivespring.codec.JsonArrayEncoder;
+import com.learnreactivespring.codec.NegotiatedEncoder;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2SmileDecoder;
+import org.springframework.http.codec.json.Jackson2SmileEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static com.learnreactivespring.constants.ItemConstants.APPLICATION_NDJSON_VALUE;
+import static com.learnreactivespring.constants.ItemConstants.APPLICATION_SMILE_VALUE;
+import static com.learnreactivespring.constants.ItemConstants.APPLICATION_STREAM_SMILE_VALUE;
+
+@Configuration
+public class CodecConfig {
+
+    public static final MediaType APPLICATION_NDJSON = MediaType.valueOf(APPLICATION_NDJSON_VALUE);
+
+    public static final MediaType APPLICATION_SMILE = MediaType.valueOf(APPLICATION_SMILE_VALUE);
+
+    public static final MediaType APPLICATION_STREAM_SMILE = MediaType.valueOf(APPLICATION_STREAM_SMILE_VALUE);
+
+    /**
+     * Formats item endpoints can answer in, JSON first so it stays the default.
+     */
+    public static final List<MediaType> ITEM_MEDIA_TYPES =
+            Arrays.asList(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR, APPLICATION_SMILE);
+
+    /**
+     * Formats for finite multi-item responses written as a Flux: NDJSON
+     * streams them, JSON writes one array as the items come and Smile one
+     * array once they are collected. CBOR is left out: it can only collect
+     * them into one value.
+     */
+    public static final List<MediaType> ITEM_FLUX_MEDIA_TYPES =
+            Arrays.asList(MediaType.APPLICATION_JSON, APPLICATION_NDJSON, APPLICATION_SMILE);
+
+    public static final List<MediaType> ITEM_STREAM_MEDIA_TYPES =
+            Arrays.asList(MediaType.APPLICATION_STREAM_JSON, APPLICATION_STREAM_SMILE);
+
+    /**
+     * Registers newline delimited JSON so bulk endpoints can read and write
+     * one item per line without buffering the whole body; JSON arrays are
+     * written element by element too ({@link JsonArrayEncoder}).
+     * Applied to the server as well as to WebClient / WebTestClient builders.
+     * <p>
+     * NDJSON is added to the default JSON codecs, after the JSON types, rather
+     * than registered as an extra codec: extra codecs are offered ahead of the
+     * defaults, so a wildcard Accept header would otherwise be answered
+     * with NDJSON. Ordered after Spring Boot's own Jackson customizer, which
+     * sets the default JSON codecs too.
+     */
+    @Bean
+    @Order(1)
+    public CodecCustomizer ndjsonCodecCustomizer(ObjectMapper objectMapper) {
+
+        return configurer -> {
+            JsonArrayEncoder encoder = new JsonArrayEncoder(objectMapper,
+                    MediaType.APPLICATION_JSON, new MediaType("application", "*+json"), APPLICATION_NDJSON);
+            encoder.setStreamingMediaTypes(Arrays.asList(MediaType.APPLICATION_STREAM_JSON, APPLICATION_NDJSON));
+
+            configurer.defaultCodecs().jackson2JsonDecoder(new Jackson2JsonDecoder(objectMapper,
+                    MediaType.APPLICATION_JSON, new MediaType("application", "*+json"), APPLICATION_NDJSON));
+            configurer.defaultCodecs().jackson2JsonEncoder(encoder);
+        };
+    }
+
+    /**
+     * Binary Jackson formats for service-to-service calls, built from the same
+     * Jackson settings as JSON. Smile can also be streamed
+     * ({@code application/stream+x-jackson-smile}); Spring's CBOR codec only
+     * reads and writes single values, so a Flux is collected into one array
+     * for it.
+     */
+    @Bean
+    public CodecCustomizer binaryCodecCustomizer(Jackson2ObjectMapperBuilder objectMapperBuilder) {
+
+        ObjectMapper smileMapper = objectMapperBuilder.factory(new SmileFactory()).build();
+        ObjectMapper cborMapper = objectMapperBuilder.factory(new CBORFactory()).build();
+
+        return configurer -> {
+            Jackson2SmileEncoder smileEncoder = new Jackson2SmileEncoder(smileMapper);
+            smileEncoder.setStreamingMediaTypes(Collections.singletonList(APPLICATION_STREAM_SMILE));
+
+            configurer.customCodecs().register(new Jackson2SmileDecoder(smileMapper));
+            configurer.customCodecs().register(new NegotiatedEncoder<>(smileEncoder));
+            configurer.customCodecs().register(new Jackson2CborDecoder(cborMapper));
+            configurer.customCodecs().register(new NegotiatedEncoder<>(new CborArrayEncoder(cborMapper)));
+        };
+    }
+
+}
@@ -0,0 +1,52 @@
+package com.learnreactivespring.config;
+
+import com.learnreactivespring.metrics.EventLoopMetrics;
+import com.learnreactivespring.metrics.RepositoryMetricsPostProcessor;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.mongodb.MongoMetricsCommandListener;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorResourceFactory;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Reactor publishes executor metrics for schedulers created after this
+     * call through Micrometer's global registry, which Boot adds its
+     * registries to.
+     */
+    @PostConstruct
+    public void enableSchedulerMetrics() {
+
+        Schedulers.enableMetrics();
+    }
+
+    @Bean
+    public static RepositoryMetricsPostProcessor repositoryMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+
+        return new RepositoryMetricsPostProcessor(meterRegistry);
+    }
+
+    /**
+     * Driver level timings per Mongo command and collection
+     * ({@code mongodb.driver.commands}), underneath the repository timers.
+     */
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoMetricsCustomizer(MeterRegistry meterRegistry) {
+
+        return builder -> builder.addCommandListener(new MongoMetricsCommandListener(meterRegistry));
+    }
+
+    @Bean
+    public EventLoopMetrics eventLoopMetrics(ReactorResourceFactory reactorResourceFactory) {
+
+        return new EventLoopMetrics(reactorResourceFactory);
+    }
+
+}
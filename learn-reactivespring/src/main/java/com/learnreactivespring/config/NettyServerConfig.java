@@ -0,0 +1,47 @@
+package com.learnreactivespring.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.netty.NettyServerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+@Slf4j
+public class NettyServerConfig {
+
+    /**
+     * Closes connections whose writes have not drained to the socket within
+     * {@code item.stream.write-timeout}. For a stream this cancels the
+     * subscription of a stalled client instead of letting its pending writes
+     * pin buffers in Netty; for anything else it only fires on a client that
+     * stopped reading.
+     */
+    @Bean
+    public NettyServerCustomizer writeTimeoutCustomizer(@Value("${item.stream.write-timeout:30s}") Duration writeTimeout,
+                                                        MeterRegistry meterRegistry) {
+
+        Counter timeouts = Counter.builder("item.stream.write.timeouts")
+                .description("Connections closed because their writes did not drain in time")
+                .register(meterRegistry);
+
+        return httpServer -> httpServer.tcpConfiguration(tcpServer -> tcpServer
+                .doOnConnection(connection -> connection.addHandlerLast(
+                        new WriteTimeoutHandler(writeTimeout.toMillis(), TimeUnit.MILLISECONDS) {
+                            @Override
+                            protected void writeTimedOut(ChannelHandlerContext ctx) throws Exception {
+                                timeouts.increment();
+                                log.warn("Closing {}, writes did not drain within {}", ctx.channel().remoteAddress(), writeTimeout);
+                                super.writeTimedOut(ctx);
+                            }
+                        })));
+    }
+
+}
@@ -7,4 +7,32 @@ public class ItemConstants {
     public static final String ITEM_FUNCTIONAL_END_POINT_V1 = "/v1/fun/items";
     public static final String ITEM_STREAM_FUNCTIONAL_END_POINT_V1 = "/v1/fun/stream/items";
 
+    public static final String ITEM_BULK_END_POINT_V1 = ITEM_END_POINT_V1 + "/bulk";
+    public static final String ITEM_BULK_FUNCTIONAL_END_POINT_V1 = ITEM_FUNCTIONAL_END_POINT_V1 + "/bulk";
+
+    public static final String ITEM_BATCH_GET_END_POINT_V1 = ITEM_END_POINT_V1 + "/batchGet";
+    public static final String ITEM_BATCH_GET_FUNCTIONAL_END_POINT_V1 = ITEM_FUNCTIONAL_END_POINT_V1 + "/batchGet";
+
+    public static final String ITEM_SEARCH_END_POINT_V1 = ITEM_END_POINT_V1 + "/search";
+    public static final String ITEM_SEARCH_FUNCTIONAL_END_POINT_V1 = ITEM_FUNCTIONAL_END_POINT_V1 + "/search";
+
+    public static final String ITEM_SYNC_END_POINT_V1 = ITEM_END_POINT_V1 + "/sync";
+    public static final String ITEM_SYNC_FUNCTIONAL_END_POINT_V1 = ITEM_FUNCTIONAL_END_POINT_V1 + "/sync";
+
+    public static final String ITEM_EVENT_STREAM_END_POINT_V1 = ITEM_STREAM_END_POINT_V1 + "/events";
+    public static final String ITEM_EVENT_STREAM_FUNCTIONAL_END_POINT_V1 = ITEM_STREAM_FUNCTIONAL_END_POINT_V1 + "/events";
+
+    public static final String ITEM_CHANGES_END_POINT_V1 = ITEM_STREAM_END_POINT_V1 + "/changes";
+    public static final String ITEM_CHANGES_FUNCTIONAL_END_POINT_V1 = ITEM_STREAM_FUNCTIONAL_END_POINT_V1 + "/changes";
+
+    public static final String CONTINUATION_TOKEN_HEADER = "X-Continuation-Token";
+
+    public static final String LAST_EVENT_ID_HEADER = "Last-Event-ID";
+
+    public static final String APPLICATION_NDJSON_VALUE = "application/x-ndjson";
+
+    public static final String APPLICATION_SMILE_VALUE = "application/x-jackson-smile";
+
+    public static final String APPLICATION_STREAM_SMILE_VALUE = "application/stream+x-jackson-smile";
+
 }
@@ -1,7 +1,11 @@
 package com.learnreactivespring.controller;
 
+import com.learnreactivespring.stream.StreamThrottle;
+import com.learnreactivespring.trace.ReactiveTracer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -11,28 +15,33 @@ import java.time.Duration;
 @RestController
 public class FluxAndMonoController {
 
+    @Autowired
+    ReactiveTracer reactiveTracer;
+
+    @Autowired
+    StreamThrottle streamThrottle;
+
     @GetMapping("/flux")
     public Flux<Integer> returnFlux(){
 
-        return Flux.just(1,2,3,4)
+        return reactiveTracer.trace("flux", Flux.just(1,2,3,4)
                // .delayElements(Duration.ofSeconds(1))
-                .log();
+                );
 
     }
 
     @GetMapping(value = "/fluxstream", produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
-    public Flux<Long> returnFluxStream(){
+    public Flux<Long> returnFluxStream(@RequestParam(required = false) Double rate){
 
-        return Flux.interval(Duration.ofSeconds(1))
-                .log();
+        return reactiveTracer.trace("fluxstream", streamThrottle.throttle(Flux.interval(Duration.ofSeconds(1))
+                .onBackpressureDrop(), rate));
 
     }
 
     @GetMapping("/mono")
     public Mono<Integer> returnMono(){
 
-        return Mono.just(1)
-                .log();
+        return reactiveTracer.trace("mono", Mono.just(1));
 
     }
 
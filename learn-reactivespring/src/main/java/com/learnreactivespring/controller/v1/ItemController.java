@@ -1,17 +1,41 @@
 package com.learnreactivespring.controller.v1;
 
+import com.learnreactivespring.cache.ItemCache;
 import com.learnreactivespring.constants.ItemConstants;
 import com.learnreactivespring.document.Item;
+import com.learnreactivespring.domain.ItemBatchResult;
+import com.learnreactivespring.domain.ItemBatchUpdateResult;
+import com.learnreactivespring.domain.ItemDelta;
+import com.learnreactivespring.domain.ItemLookupResult;
+import com.learnreactivespring.domain.ItemQuery;
+import com.learnreactivespring.domain.ItemSyncPage;
 import com.learnreactivespring.repository.ItemReactiveRepository;
+import com.learnreactivespring.service.ItemBulkService;
+import com.learnreactivespring.service.ItemLookupService;
+import com.learnreactivespring.service.ItemPageService;
+import com.learnreactivespring.service.ItemSearchService;
+import com.learnreactivespring.service.ItemSyncService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.buffer.DataBuffer;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpResponse;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
+import static com.learnreactivespring.constants.ItemConstants.APPLICATION_NDJSON_VALUE;
+import static com.learnreactivespring.constants.ItemConstants.APPLICATION_SMILE_VALUE;
+import static com.learnreactivespring.constants.ItemConstants.CONTINUATION_TOKEN_HEADER;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_BATCH_GET_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_BULK_END_POINT_V1;
 import static com.learnreactivespring.constants.ItemConstants.ITEM_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_SEARCH_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_SYNC_END_POINT_V1;
 
 @RestController
 @Slf4j
@@ -26,36 +50,153 @@ public class ItemController {
     @Autowired
     ItemReactiveRepository itemReactiveRepository;
 
+    @Autowired
+    ItemBulkService itemBulkService;
+
+    @Autowired
+    ItemPageService itemPageService;
+
+    @Autowired
+    ItemLookupService itemLookupService;
+
+    @Autowired
+    ItemSearchService itemSearchService;
+
+    @Autowired
+    ItemSyncService itemSyncService;
+
+    @Autowired
+    ItemCache itemCache;
+
+    @GetMapping(value = ITEM_END_POINT_V1, produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, APPLICATION_SMILE_VALUE})
+    public Mono<ResponseEntity<Flux<Item>>> getAllItems(@RequestParam(required = false) String after,
+                                                        @RequestParam(required = false) Integer limit,
+                                                        @RequestParam(required = false) Double minPrice,
+                                                        @RequestParam(required = false) Double maxPrice,
+                                                        @RequestParam(required = false) String descriptionPrefix,
+                                                        @RequestParam(required = false) String sort,
+                                                        @RequestParam(required = false) String fields){
+
+       ItemQuery itemQuery = ItemPageService.itemQuery(minPrice, maxPrice, descriptionPrefix, sort, fields);
+
+       if (ItemPageService.unpaged(after, limit)) {
+           return Mono.just(ResponseEntity.ok().body(itemPageService.findAll(itemQuery)));
+       }
+
+       return itemPageService.findPage(itemQuery, after, limit)
+               .map(page -> {
+                   ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+                   if (page.getContinuationToken() != null) {
+                       response.header(CONTINUATION_TOKEN_HEADER, page.getContinuationToken());
+                   }
+                   return response.body(Flux.fromIterable(page.getItems()));
+               });
+
+    }
+
+    /**
+     * Opt-in pass-through variant of getAllItems: raw BSON from the driver is
+     * rendered directly into response buffers, same JSON, no Item objects.
+     */
+    @GetMapping(value = ITEM_END_POINT_V1, params = "raw=true", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Mono<ResponseEntity<Flux<DataBuffer>>> getAllItemsRaw(@RequestParam(required = false) String after,
+                                                                 @RequestParam(required = false) Integer limit,
+                                                                 ServerHttpResponse serverHttpResponse){
+
+       return itemPageService.findRawPage(after, limit, serverHttpResponse.bufferFactory())
+               .map(page -> {
+                   ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                           .contentType(MediaType.APPLICATION_JSON);
+                   if (page.getContinuationToken() != null) {
+                       response.header(CONTINUATION_TOKEN_HEADER, page.getContinuationToken());
+                   }
+                   return response.body(page.getBody());
+               });
+
+    }
+
+    /**
+     * Case-insensitive word prefix search on the description, best matches
+     * first. Only the first {@code item.search.max-candidates} matches are
+     * ranked, see ItemSearchService.
+     */
+    @GetMapping(value = ITEM_SEARCH_END_POINT_V1, produces = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE, APPLICATION_SMILE_VALUE})
+    public Flux<Item> searchItems(@RequestParam String q,
+                                  @RequestParam(required = false) Integer limit){
+
+        return itemSearchService.search(q, limit);
 
-    @GetMapping(ITEM_END_POINT_V1)
-    public Flux<Item> getAllItems(){
+    }
+
+    /**
+     * Changes since {@code since}, or a paged snapshot of the catalog when it
+     * is absent. Each page carries the token for the next call.
+     */
+    @GetMapping(value = ITEM_SYNC_END_POINT_V1, produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, APPLICATION_SMILE_VALUE})
+    public Mono<ItemSyncPage> syncItems(@RequestParam(required = false) String since,
+                                        @RequestParam(required = false) Integer limit){
 
-       return itemReactiveRepository.findAll();
+        return itemSyncService.sync(since, limit);
 
     }
 
-    @GetMapping(ITEM_END_POINT_V1+"/{id}")
+    @GetMapping(value = ITEM_END_POINT_V1+"/{id}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, APPLICATION_SMILE_VALUE})
     public Mono<ResponseEntity<Item>> getOneItem(@PathVariable String id){
 
-        return itemReactiveRepository.findById(id)
+        return itemCache.findById(id)
                 .map((item) -> new ResponseEntity<>(item, HttpStatus.OK))
                 .defaultIfEmpty(new ResponseEntity<>(HttpStatus.NOT_FOUND));
 
     }
 
-    @PostMapping(ITEM_END_POINT_V1)
+    @PostMapping(value = ITEM_END_POINT_V1, produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, APPLICATION_SMILE_VALUE})
     @ResponseStatus(HttpStatus.CREATED)
     public Mono<Item> createItem(@RequestBody Item item){
 
-        return itemReactiveRepository.save(item);
+        return itemReactiveRepository.saveSequenced(item)
+                .doOnNext(savedItem -> itemCache.evict(savedItem.getId()));
+
+
+    }
+
+    /**
+     * Looks up many items at once with chunked $in queries. Every requested
+     * id gets a result, missing ones with {@code found = false}. Asked for
+     * as NDJSON, results are written as each chunk's query completes.
+     */
+    @PostMapping(value = ITEM_BATCH_GET_END_POINT_V1,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, APPLICATION_SMILE_VALUE},
+            produces = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE, APPLICATION_SMILE_VALUE})
+    public Flux<ItemLookupResult> batchGet(@RequestBody List<String> ids){
+
+        return itemLookupService.lookup(Flux.fromIterable(ids));
+
+    }
+
+    /**
+     * Same as batchGet with the ids themselves streamed in, one per line.
+     */
+    @PostMapping(value = ITEM_BATCH_GET_END_POINT_V1, consumes = APPLICATION_NDJSON_VALUE,
+            produces = {MediaType.APPLICATION_JSON_VALUE, APPLICATION_NDJSON_VALUE, APPLICATION_SMILE_VALUE})
+    public Flux<ItemLookupResult> batchGetStreamedIds(@RequestBody Flux<String> idLines){
 
+        return itemLookupService.lookup(ItemLookupService.parseIdLines(idLines));
+
+    }
+
+    @PostMapping(value = ITEM_BULK_END_POINT_V1, consumes = APPLICATION_NDJSON_VALUE, produces = APPLICATION_NDJSON_VALUE)
+    public Flux<ItemBatchResult> createItems(@RequestBody Flux<Item> items){
+
+        return itemBulkService.insertAll(items);
 
     }
 
     @DeleteMapping(ITEM_END_POINT_V1+"/{id}")
     public Mono<Void> deleteItem(@PathVariable String id){
 
-        return itemReactiveRepository.deleteById(id);
+        return itemSyncService.delete(id)
+                .doOnSuccess(deleted -> itemCache.evict(id))
+                .then();
 
 
     }
@@ -67,26 +208,24 @@ public class ItemController {
                 .concatWith(Mono.error(new RuntimeException("RuntimeException Occurred.")));
     }
 
-    //id and item to be updated in the req = path variable and request body - completed
-    // using the id get the item from database - completed
-    // updated the item retrieved with the value from the request body - completed
-    // save the item - completed
-    //return the saved item - completed
-    @PutMapping(ITEM_END_POINT_V1+"/{id}")
+    @PutMapping(value = ITEM_END_POINT_V1+"/{id}", produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE, APPLICATION_SMILE_VALUE})
     public Mono<ResponseEntity<Item>> updateItem(@PathVariable String id,
                                                  @RequestBody Item item){
 
-        return itemReactiveRepository.findById(id)
-                .flatMap(currentItem -> {
-
-                    currentItem.setPrice(item.getPrice());
-                    currentItem.setDescription(item.getDescription());
-                    return itemReactiveRepository.save(currentItem);
-                })
+        return itemReactiveRepository.updatePriceAndDescription(id, item.getPrice(), item.getDescription())
+                .doOnNext(updatedItem -> itemCache.evict(id))
                 .map(updatedItem -> new ResponseEntity<>(updatedItem, HttpStatus.OK))
                 .defaultIfEmpty(new ResponseEntity<>(HttpStatus.NOT_FOUND));
 
     }
 
+    @PatchMapping(value = ITEM_BULK_END_POINT_V1, consumes = APPLICATION_NDJSON_VALUE, produces = APPLICATION_NDJSON_VALUE)
+    public Flux<ItemBatchUpdateResult> updateItems(@RequestBody Flux<ItemDelta> deltas,
+                                                   @RequestParam(defaultValue = "false") boolean upsert){
+
+        return itemBulkService.updateAll(deltas, upsert);
+
+    }
+
 
 }
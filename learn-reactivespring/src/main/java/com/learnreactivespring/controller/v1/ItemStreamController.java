@@ -2,25 +2,63 @@ package com.learnreactivespring.controller.v1;
 
 
 import com.learnreactivespring.document.ItemCapped;
-import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import com.learnreactivespring.domain.ItemChange;
+import com.learnreactivespring.stream.ItemCappedStreamHub;
+import com.learnreactivespring.stream.ItemChangeStream;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
 
+import static com.learnreactivespring.constants.ItemConstants.APPLICATION_NDJSON_VALUE;
+import static com.learnreactivespring.constants.ItemConstants.APPLICATION_STREAM_SMILE_VALUE;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_CHANGES_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_EVENT_STREAM_END_POINT_V1;
 import static com.learnreactivespring.constants.ItemConstants.ITEM_STREAM_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.LAST_EVENT_ID_HEADER;
 
 @RestController
 public class ItemStreamController {
 
     @Autowired
-    ItemReactiveCappedRepository itemReactiveCappedRepository;
+    ItemCappedStreamHub itemCappedStreamHub;
 
-    @GetMapping(value = ITEM_STREAM_END_POINT_V1, produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
-    public Flux<ItemCapped> getItemsStream(){
+    @Autowired
+    ItemChangeStream itemChangeStream;
+
+    @GetMapping(value = ITEM_STREAM_END_POINT_V1, produces = {MediaType.APPLICATION_STREAM_JSON_VALUE, APPLICATION_STREAM_SMILE_VALUE})
+    public Flux<ItemCapped> getItemsStream(@RequestParam(required = false) Double rate){
+
+        return itemCappedStreamHub.subscribe(rate);
+    }
+
+    @GetMapping(value = ITEM_EVENT_STREAM_END_POINT_V1, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> getItemsEventStream(
+            @RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) String lastEventId,
+            @RequestParam(required = false) Double rate){
+
+        return itemCappedStreamHub.subscribeEvents(lastEventId, rate);
+    }
+
+    @GetMapping(value = ITEM_CHANGES_END_POINT_V1, produces = APPLICATION_NDJSON_VALUE)
+    public Flux<ItemChange> getItemChanges(@RequestParam(required = false) String resumeAfter,
+                                           @RequestParam(required = false) String operationType){
+
+        return itemChangeStream.subscribe(resumeAfter, ItemChangeStream.operationTypes(operationType));
+    }
+
+    @GetMapping(value = ITEM_CHANGES_END_POINT_V1, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ItemChange>> getItemChangeEvents(
+            @RequestHeader(value = LAST_EVENT_ID_HEADER, required = false) String lastEventId,
+            @RequestParam(required = false) String resumeAfter,
+            @RequestParam(required = false) String operationType){
 
-        return itemReactiveCappedRepository.findItemsBy();
+        return itemChangeStream.subscribeEvents(lastEventId != null ? lastEventId : resumeAfter,
+                ItemChangeStream.operationTypes(operationType));
     }
 
 
@@ -4,9 +4,24 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+/**
+ * Indexes are declared here and created at startup by ItemIndexInitializer.
+ * price_id and description_id serve filtered, sorted listings and their
+ * keyset pages; description_id also serves findByDescription.
+ * {@code searchTerms} and {@code lastModified} (see ItemSequence) are only
+ * written to the stored document and never read back.
+ */
 @Document
+@CompoundIndexes({
+        @CompoundIndex(name = "searchTerms", def = "{'searchTerms': 1}"),
+        @CompoundIndex(name = "price_id", def = "{'price': 1, '_id': 1}"),
+        @CompoundIndex(name = "description_id", def = "{'description': 1, '_id': 1}"),
+        @CompoundIndex(name = "lastModified", def = "{'lastModified': 1}")
+})
 @Data
 @AllArgsConstructor
 @NoArgsConstructor
@@ -0,0 +1,26 @@
+package com.learnreactivespring.document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Left behind when an item is deleted, so delta sync can report the delete.
+ * Its indexes, including the TTL on {@code deletedAt}, are created by
+ * ItemIndexInitializer.
+ */
+@Document
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemTombstone {
+
+    @Id
+    private String id;
+    private Long lastModified;
+    private Date deletedAt;
+}
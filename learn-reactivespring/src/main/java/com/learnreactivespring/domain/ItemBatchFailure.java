@@ -0,0 +1,17 @@
+package com.learnreactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemBatchFailure {
+
+    /**
+     * Position of the failed item in the request stream, starting at 0.
+     */
+    private long index;
+    private String message;
+}
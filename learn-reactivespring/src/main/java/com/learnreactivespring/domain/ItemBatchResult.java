@@ -0,0 +1,17 @@
+package com.learnreactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemBatchResult {
+
+    private long batch;
+    private int inserted;
+    private List<ItemBatchFailure> failures;
+}
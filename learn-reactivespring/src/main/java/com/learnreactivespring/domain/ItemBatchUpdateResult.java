@@ -0,0 +1,19 @@
+package com.learnreactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemBatchUpdateResult {
+
+    private long batch;
+    private int matched;
+    private int modified;
+    private int upserted;
+    private List<ItemBatchFailure> failures;
+}
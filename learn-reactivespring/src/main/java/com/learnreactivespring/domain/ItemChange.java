@@ -0,0 +1,31 @@
+package com.learnreactivespring.domain;
+
+import com.learnreactivespring.document.Item;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.Instant;
+
+/**
+ * One event of the item change feed. {@code item} is the full document after
+ * inserts, updates and replaces and null for deletes; {@code id} is null for
+ * collection level events (drop, rename, invalidate), after which a consumer
+ * should reload the catalog. {@code resumeToken} can be handed back to resume
+ * the feed right after this event.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemChange {
+
+    private String operationType;
+    private String id;
+    private Item item;
+    private String resumeToken;
+    private Instant timestamp;
+
+    public static ItemChange invalidate() {
+        return new ItemChange("invalidate", null, null, null, Instant.now());
+    }
+}
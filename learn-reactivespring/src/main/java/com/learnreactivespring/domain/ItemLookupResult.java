@@ -0,0 +1,28 @@
+package com.learnreactivespring.domain;
+
+import com.learnreactivespring.document.Item;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One line of a batchGet response: the requested id and either the item or
+ * {@code found = false} when no item has that id.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemLookupResult {
+
+    private String id;
+    private boolean found;
+    private Item item;
+
+    public static ItemLookupResult found(Item item) {
+        return new ItemLookupResult(item.getId(), true, item);
+    }
+
+    public static ItemLookupResult missing(String id) {
+        return new ItemLookupResult(id, false, null);
+    }
+}
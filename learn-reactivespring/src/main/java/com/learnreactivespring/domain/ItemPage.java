@@ -0,0 +1,21 @@
+package com.learnreactivespring.domain;
+
+import com.learnreactivespring.document.Item;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemPage {
+
+    private List<Item> items;
+
+    /**
+     * Token to pass as {@code after} to get the next page, null on the last page.
+     */
+    private String continuationToken;
+}
@@ -0,0 +1,34 @@
+package com.learnreactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+
+/**
+ * Filter, order and projection of an item listing, pushed down to Mongo.
+ * The defaults (no filter, ordered by id, all fields) list every item.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemQuery {
+
+    private Double minPrice;
+    private Double maxPrice;
+    private String descriptionPrefix;
+
+    /**
+     * One of id, price or description; ties are broken by id.
+     */
+    private String sort = "id";
+    private Sort.Direction direction = Sort.Direction.ASC;
+
+    /**
+     * Fields to return, null for all. The id and the sort field are always
+     * returned since the continuation token is built from them.
+     */
+    private List<String> fields;
+}
@@ -0,0 +1,28 @@
+package com.learnreactivespring.domain;
+
+import com.learnreactivespring.document.Item;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One entry of a sync page: the current item, or {@code deleted = true} with
+ * only the id when the item was deleted.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemSyncChange {
+
+    private String id;
+    private boolean deleted;
+    private Item item;
+
+    public static ItemSyncChange changed(Item item) {
+        return new ItemSyncChange(item.getId(), false, item);
+    }
+
+    public static ItemSyncChange deleted(String id) {
+        return new ItemSyncChange(id, true, null);
+    }
+}
@@ -0,0 +1,22 @@
+package com.learnreactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * {@code token} is passed as {@code since} on the next call. {@code more}
+ * says whether that call should be made right away (the page was full)
+ * rather than on the client's normal schedule.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemSyncPage {
+
+    private List<ItemSyncChange> changes;
+    private String token;
+    private boolean more;
+}
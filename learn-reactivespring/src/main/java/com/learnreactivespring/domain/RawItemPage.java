@@ -0,0 +1,16 @@
+package com.learnreactivespring.domain;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.core.io.buffer.DataBuffer;
+import reactor.core.publisher.Flux;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RawItemPage {
+
+    private Flux<DataBuffer> body;
+    private String continuationToken;
+}
@@ -41,7 +41,9 @@ public class FunctionalErrorWebExceptionHandler extends AbstractErrorWebExceptio
         Map<String, Object> errorAttributesMap = getErrorAttributes(serverRequest, false);
         log.info("errorAttributesMap : " + errorAttributesMap);
 
-        return ServerResponse.status(HttpStatus.INTERNAL_SERVER_ERROR)
+        HttpStatus status = HttpStatus.valueOf((Integer) errorAttributesMap.get("status"));
+
+        return ServerResponse.status(status)
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(BodyInserters.fromObject(errorAttributesMap.get("message")));
 
@@ -1,17 +1,48 @@
 package com.learnreactivespring.handler;
 
+import com.learnreactivespring.cache.ItemCache;
 import com.learnreactivespring.document.Item;
 import com.learnreactivespring.document.ItemCapped;
-import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import com.learnreactivespring.domain.ItemBatchResult;
+import com.learnreactivespring.domain.ItemBatchUpdateResult;
+import com.learnreactivespring.domain.ItemChange;
+import com.learnreactivespring.domain.ItemDelta;
+import com.learnreactivespring.domain.ItemLookupResult;
+import com.learnreactivespring.domain.ItemQuery;
+import com.learnreactivespring.domain.ItemSyncPage;
 import com.learnreactivespring.repository.ItemReactiveRepository;
+import com.learnreactivespring.service.ItemBulkService;
+import com.learnreactivespring.service.ItemLookupService;
+import com.learnreactivespring.service.ItemPageService;
+import com.learnreactivespring.service.ItemSearchService;
+import com.learnreactivespring.service.ItemSyncService;
+import com.learnreactivespring.stream.ItemCappedStreamHub;
+import com.learnreactivespring.stream.ItemChangeStream;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.learnreactivespring.config.CodecConfig.APPLICATION_NDJSON;
+import static com.learnreactivespring.config.CodecConfig.ITEM_FLUX_MEDIA_TYPES;
+import static com.learnreactivespring.config.CodecConfig.ITEM_MEDIA_TYPES;
+import static com.learnreactivespring.config.CodecConfig.ITEM_STREAM_MEDIA_TYPES;
+import static com.learnreactivespring.constants.ItemConstants.CONTINUATION_TOKEN_HEADER;
+import static com.learnreactivespring.constants.ItemConstants.LAST_EVENT_ID_HEADER;
+import static org.springframework.web.reactive.function.BodyInserters.fromDataBuffers;
 import static org.springframework.web.reactive.function.BodyInserters.fromObject;
+import static org.springframework.web.reactive.function.BodyInserters.fromServerSentEvents;
 
 @Component
 public class ItemsHandler {
@@ -20,26 +51,153 @@ public class ItemsHandler {
     ItemReactiveRepository itemReactiveRepository;
 
     @Autowired
-    ItemReactiveCappedRepository itemReactiveCappedRepository;
+    ItemCappedStreamHub itemCappedStreamHub;
+
+    @Autowired
+    ItemChangeStream itemChangeStream;
+
+    @Autowired
+    ItemBulkService itemBulkService;
+
+    @Autowired
+    ItemPageService itemPageService;
+
+    @Autowired
+    ItemLookupService itemLookupService;
+
+    @Autowired
+    ItemSearchService itemSearchService;
+
+    @Autowired
+    ItemSyncService itemSyncService;
+
+    @Autowired
+    ItemCache itemCache;
+
+    private static final ParameterizedTypeReference<List<String>> ID_LIST = new ParameterizedTypeReference<List<String>>() {};
 
     static Mono<ServerResponse> notFound = ServerResponse.notFound().build();
 
     public Mono<ServerResponse> getAllItems(ServerRequest serverRequest) {
 
+        String after = serverRequest.queryParam("after").orElse(null);
+        Integer limit = serverRequest.queryParam("limit").map(ItemsHandler::parseLimit).orElse(null);
+        ItemQuery itemQuery = ItemPageService.itemQuery(
+                doubleParam(serverRequest, "minPrice"),
+                doubleParam(serverRequest, "maxPrice"),
+                serverRequest.queryParam("descriptionPrefix").orElse(null),
+                serverRequest.queryParam("sort").orElse(null),
+                serverRequest.queryParam("fields").orElse(null));
+
+        if (ItemPageService.unpaged(after, limit)) {
+            return ServerResponse.ok()
+                    .contentType(negotiate(serverRequest, ITEM_MEDIA_TYPES))
+                    .body(itemPageService.findAll(itemQuery), Item.class);
+        }
+
+        return itemPageService.findPage(itemQuery, after, limit)
+                .flatMap(page -> {
+                    ServerResponse.BodyBuilder response = ServerResponse.ok()
+                            .contentType(negotiate(serverRequest, ITEM_MEDIA_TYPES));
+                    if (page.getContinuationToken() != null) {
+                        response.header(CONTINUATION_TOKEN_HEADER, page.getContinuationToken());
+                    }
+                    return response.body(fromObject(page.getItems()));
+                });
+
+    }
+
+    public Mono<ServerResponse> getAllItemsRaw(ServerRequest serverRequest) {
+
+        String after = serverRequest.queryParam("after").orElse(null);
+        Integer limit = serverRequest.queryParam("limit").map(ItemsHandler::parseLimit).orElse(null);
+        DataBufferFactory bufferFactory = serverRequest.exchange().getResponse().bufferFactory();
+
+        return itemPageService.findRawPage(after, limit, bufferFactory)
+                .flatMap(page -> {
+                    ServerResponse.BodyBuilder response = ServerResponse.ok()
+                            .contentType(MediaType.APPLICATION_JSON);
+                    if (page.getContinuationToken() != null) {
+                        response.header(CONTINUATION_TOKEN_HEADER, page.getContinuationToken());
+                    }
+                    return response.body(fromDataBuffers(page.getBody()));
+                });
+
+    }
+
+    private static Integer parseLimit(String limit) {
+
+        try {
+            return Integer.valueOf(limit);
+        } catch (NumberFormatException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be a number");
+        }
+    }
+
+    private static Double doubleParam(ServerRequest serverRequest, String name) {
+
+        return serverRequest.queryParam(name)
+                .map(value -> {
+                    try {
+                        return Double.valueOf(value);
+                    } catch (NumberFormatException ex) {
+                        throw new ResponseStatusException(HttpStatus.BAD_REQUEST, name + " must be a number");
+                    }
+                })
+                .orElse(null);
+    }
+
+    /**
+     * Functional responses are not negotiated by the framework, so pick the
+     * first producible type the client accepts, in the client's preference
+     * order. Falls back to the first producible type (JSON).
+     */
+    static MediaType negotiate(ServerRequest serverRequest, List<MediaType> producible) {
+
+        List<MediaType> acceptable = new ArrayList<>(serverRequest.headers().accept());
+        MediaType.sortBySpecificityAndQuality(acceptable);
+
+        for (MediaType mediaType : acceptable) {
+            for (MediaType candidate : producible) {
+                if (mediaType.isCompatibleWith(candidate)) {
+                    return candidate;
+                }
+            }
+        }
+        return producible.get(0);
+    }
+
+    public Mono<ServerResponse> searchItems(ServerRequest serverRequest) {
+
+        String q = serverRequest.queryParam("q")
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "q is required"));
+        Integer limit = serverRequest.queryParam("limit").map(ItemsHandler::parseLimit).orElse(null);
+
         return ServerResponse.ok()
-                .contentType(MediaType.APPLICATION_JSON)
-                .body(itemReactiveRepository.findAll(), Item.class);
+                .contentType(negotiate(serverRequest, ITEM_FLUX_MEDIA_TYPES))
+                .body(itemSearchService.search(q, limit), Item.class);
+
+    }
+
+    public Mono<ServerResponse> syncItems(ServerRequest serverRequest) {
+
+        String since = serverRequest.queryParam("since").orElse(null);
+        Integer limit = serverRequest.queryParam("limit").map(ItemsHandler::parseLimit).orElse(null);
+
+        return ServerResponse.ok()
+                .contentType(negotiate(serverRequest, ITEM_MEDIA_TYPES))
+                .body(itemSyncService.sync(since, limit), ItemSyncPage.class);
 
     }
 
     public Mono<ServerResponse> getOneItem(ServerRequest serverRequest) {
 
         String id = serverRequest.pathVariable("id");
-        Mono<Item> itemMono = itemReactiveRepository.findById(id);
+        Mono<Item> itemMono = itemCache.findById(id);
 
         return itemMono.flatMap(item ->
                 ServerResponse.ok()
-                        .contentType(MediaType.APPLICATION_JSON)
+                        .contentType(negotiate(serverRequest, ITEM_MEDIA_TYPES))
                         .body(fromObject(item)))
                 .switchIfEmpty(notFound);
 
@@ -51,15 +209,47 @@ public class ItemsHandler {
 
         return itemTobeInserted.flatMap(item ->
                 ServerResponse.ok()
-                        .contentType(MediaType.APPLICATION_JSON)
-                        .body(itemReactiveRepository.save(item), Item.class));
+                        .contentType(negotiate(serverRequest, ITEM_MEDIA_TYPES))
+                        .body(itemReactiveRepository.saveSequenced(item)
+                                .doOnNext(savedItem -> itemCache.evict(savedItem.getId())), Item.class));
+
+    }
+
+    public Mono<ServerResponse> createItems(ServerRequest serverRequest) {
+
+        Flux<ItemBatchResult> results = itemBulkService.insertAll(serverRequest.bodyToFlux(Item.class));
+
+        return ServerResponse.ok()
+                .contentType(APPLICATION_NDJSON)
+                .body(results, ItemBatchResult.class);
+
+    }
+
+    /**
+     * batchGet: ids come as a JSON (or CBOR/Smile) list or as NDJSON lines.
+     * Results are streamed when NDJSON is accepted.
+     */
+    public Mono<ServerResponse> batchGet(ServerRequest serverRequest) {
+
+        boolean streamedIds = serverRequest.headers().contentType()
+                .map(APPLICATION_NDJSON::isCompatibleWith)
+                .orElse(false);
+        Flux<String> ids = streamedIds
+                ? ItemLookupService.parseIdLines(serverRequest.bodyToFlux(String.class))
+                : serverRequest.bodyToMono(ID_LIST).flatMapIterable(Function.identity());
+
+        return ServerResponse.ok()
+                .contentType(negotiate(serverRequest, ITEM_FLUX_MEDIA_TYPES))
+                .body(itemLookupService.lookup(ids), ItemLookupResult.class);
 
     }
 
     public Mono<ServerResponse> deleteItem(ServerRequest serverRequest) {
 
         String id = serverRequest.pathVariable("id");
-        Mono<Void> deleteItem = itemReactiveRepository.deleteById(id);
+        Mono<Void> deleteItem = itemSyncService.delete(id)
+                .doOnSuccess(deleted -> itemCache.evict(id))
+                .then();
 
         return ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_JSON)
@@ -71,32 +261,64 @@ public class ItemsHandler {
         String id = serverRequest.pathVariable("id");
 
         Mono<Item> updatedItem = serverRequest.bodyToMono(Item.class)
-                .flatMap((item) -> {
-
-                    Mono<Item> itemMono = itemReactiveRepository.findById(id)
-                            .flatMap(currentItem -> {
-                                currentItem.setDescription(item.getDescription());
-                                currentItem.setPrice(item.getPrice());
-                                return itemReactiveRepository.save(currentItem);
-
-                            });
-                    return itemMono;
-                });
+                .flatMap(item -> itemReactiveRepository.updatePriceAndDescription(id, item.getPrice(), item.getDescription()))
+                .doOnNext(item -> itemCache.evict(id));
 
         return updatedItem.flatMap(item ->
                 ServerResponse.ok()
-                        .contentType(MediaType.APPLICATION_JSON)
+                        .contentType(negotiate(serverRequest, ITEM_MEDIA_TYPES))
                         .body(fromObject(item)))
                 .switchIfEmpty(notFound);
 
 
     }
 
+    public Mono<ServerResponse> updateItems(ServerRequest serverRequest) {
+
+        boolean upsert = serverRequest.queryParam("upsert").map(Boolean::parseBoolean).orElse(false);
+        Flux<ItemBatchUpdateResult> results = itemBulkService.updateAll(serverRequest.bodyToFlux(ItemDelta.class), upsert);
+
+        return ServerResponse.ok()
+                .contentType(APPLICATION_NDJSON)
+                .body(results, ItemBatchUpdateResult.class);
+
+    }
+
     public Mono<ServerResponse> itemsStream(ServerRequest serverRequest){
 
         return  ServerResponse.ok()
-                .contentType(MediaType.APPLICATION_STREAM_JSON)
-                .body(itemReactiveCappedRepository.findItemsBy(), ItemCapped.class);
+                .contentType(negotiate(serverRequest, ITEM_STREAM_MEDIA_TYPES))
+                .body(itemCappedStreamHub.subscribe(doubleParam(serverRequest, "rate")), ItemCapped.class);
+    }
+
+    public Mono<ServerResponse> itemsEventStream(ServerRequest serverRequest){
+
+        String lastEventId = serverRequest.headers().asHttpHeaders().getFirst(LAST_EVENT_ID_HEADER);
+
+        return  ServerResponse.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(fromServerSentEvents(itemCappedStreamHub.subscribeEvents(lastEventId, doubleParam(serverRequest, "rate"))));
+    }
+
+    public Mono<ServerResponse> itemChanges(ServerRequest serverRequest){
+
+        Flux<ItemChange> changes = itemChangeStream.subscribe(serverRequest.queryParam("resumeAfter").orElse(null),
+                ItemChangeStream.operationTypes(serverRequest.queryParam("operationType").orElse(null)));
+
+        return  ServerResponse.ok()
+                .contentType(APPLICATION_NDJSON)
+                .body(changes, ItemChange.class);
+    }
+
+    public Mono<ServerResponse> itemChangeEvents(ServerRequest serverRequest){
+
+        String lastEventId = serverRequest.headers().asHttpHeaders().getFirst(LAST_EVENT_ID_HEADER);
+        String resumeAfter = lastEventId != null ? lastEventId : serverRequest.queryParam("resumeAfter").orElse(null);
+
+        return  ServerResponse.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(fromServerSentEvents(itemChangeStream.subscribeEvents(resumeAfter,
+                        ItemChangeStream.operationTypes(serverRequest.queryParam("operationType").orElse(null)))));
     }
 
     public Mono<ServerResponse> itemsEx(ServerRequest serverRequest){
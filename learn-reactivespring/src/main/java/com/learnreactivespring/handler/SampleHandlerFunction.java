@@ -1,5 +1,7 @@
 package com.learnreactivespring.handler;
 
+import com.learnreactivespring.trace.ReactiveTracer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.server.ServerRequest;
@@ -10,13 +12,15 @@ import reactor.core.publisher.Mono;
 @Component
 public class SampleHandlerFunction {
 
+    @Autowired
+    ReactiveTracer reactiveTracer;
+
     public Mono<ServerResponse> flux(ServerRequest serverRequest) {
 
         return ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(
-                        Flux.just(1, 2, 3, 4)
-                                .log(), Integer.class
+                        reactiveTracer.trace("functional-flux", Flux.just(1, 2, 3, 4)), Integer.class
                 );
     }
 
@@ -25,8 +29,7 @@ public class SampleHandlerFunction {
         return ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(
-                        Mono.just(1)
-                                .log(), Integer.class
+                        reactiveTracer.trace("functional-mono", Mono.just(1)), Integer.class
                 );
     }
 }
@@ -0,0 +1,182 @@
+package com.learnreactivespring.initialize;
+
+import com.learnreactivespring.document.ItemCapped;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Collation;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Sizes the capped collection from a retention target instead of a fixed
+ * document count: it has to hold at least {@code item.capped.retention} worth
+ * of events at the higher of the configured generator rate and the rate
+ * observed on previous runs. While running, the real window (age of the
+ * oldest item once the collection is full) is checked periodically and the
+ * observed rate is recorded so the next startup sizes for it.
+ */
+@Component
+@Slf4j
+public class CappedCollectionSizer implements MeterBinder {
+
+    private static final String SIZING_COLLECTION = "cappedSizing";
+
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
+    @Value("${item.capped.retention:60s}")
+    Duration retention;
+
+    @Value("${item.capped.average-document-size:128}")
+    long averageDocumentSize;
+
+    @Value("${item.capped.min-documents:20}")
+    long minDocuments;
+
+    @Value("${item.capped.check-interval:30s}")
+    Duration checkInterval;
+
+    @Value("${item.generator.rate:1}")
+    double configuredRate;
+
+    private final AtomicLong windowSeconds = new AtomicLong(-1);
+
+    private Disposable monitor;
+
+    /**
+     * Keeps the existing collection when it is capped and at least as large
+     * as required; otherwise recreates it with the required size. Capped
+     * collections cannot be resized in place.
+     */
+    public Mono<Void> ensureCappedCollection() {
+
+        String collectionName = mongoOperations.getCollectionName(ItemCapped.class);
+
+        return observedRate(collectionName)
+                .map(observed -> Math.max(observed, configuredRate))
+                .flatMap(rate -> {
+                    long maxDocuments = Math.max(minDocuments, (long) Math.ceil(rate * retention.getSeconds()));
+                    long size = Math.max(4096, maxDocuments * averageDocumentSize);
+
+                    return isLargeEnough(collectionName, maxDocuments, size)
+                            .flatMap(largeEnough -> {
+                                if (largeEnough) {
+                                    log.info("Keeping capped collection {}, it already holds {} documents", collectionName, maxDocuments);
+                                    return Mono.empty();
+                                }
+                                log.info("Creating capped collection {} for {} documents / {} bytes ({} events/s for {})",
+                                        collectionName, maxDocuments, size, rate, retention);
+                                return mongoOperations.dropCollection(ItemCapped.class)
+                                        .then(mongoOperations.createCollection(ItemCapped.class,
+                                                CollectionOptions.just(Collation.simple()).capped().maxDocuments(maxDocuments).size(size)))
+                                        .then();
+                            });
+                });
+    }
+
+    private Mono<Boolean> isLargeEnough(String collectionName, long maxDocuments, long size) {
+
+        return mongoOperations.collectionExists(collectionName)
+                .flatMap(exists -> {
+                    if (!exists) {
+                        return Mono.just(false);
+                    }
+                    return mongoOperations.executeCommand(new Document("collStats", collectionName))
+                            .map(stats -> stats.getBoolean("capped", false)
+                                    && stats.get("max", Number.class) != null
+                                    && stats.get("max", Number.class).longValue() >= maxDocuments
+                                    && stats.get("maxSize", Number.class) != null
+                                    && stats.get("maxSize", Number.class).longValue() >= size);
+                });
+    }
+
+    private Mono<Double> observedRate(String collectionName) {
+
+        return mongoOperations.findById(collectionName, Document.class, SIZING_COLLECTION)
+                .map(sizing -> sizing.get("observedRate", Number.class).doubleValue())
+                .defaultIfEmpty(0.0);
+    }
+
+    public void startMonitoring() {
+
+        String collectionName = mongoOperations.getCollectionName(ItemCapped.class);
+
+        monitor = Flux.interval(checkInterval)
+                .concatMap(tick -> checkWindow(collectionName)
+                        .onErrorResume(ex -> {
+                            log.warn("Could not check the capped collection window : {}", ex.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    /**
+     * Once the collection is full, the age of the oldest document is the
+     * real retention window. Ids are ObjectIds, so the window can be read
+     * from their timestamps without an extra field.
+     */
+    private Mono<Void> checkWindow(String collectionName) {
+
+        Mono<ItemCapped> oldest = mongoOperations.findOne(new Query().with(Sort.by(Sort.Direction.ASC, "id")), ItemCapped.class);
+        Mono<ItemCapped> newest = mongoOperations.findOne(new Query().with(Sort.by(Sort.Direction.DESC, "id")), ItemCapped.class);
+
+        return Mono.zip(oldest, newest, mongoOperations.count(new Query(), ItemCapped.class),
+                mongoOperations.executeCommand(new Document("collStats", collectionName)))
+                .flatMap(state -> {
+                    if (!ObjectId.isValid(state.getT1().getId()) || !ObjectId.isValid(state.getT2().getId())) {
+                        return Mono.empty();
+                    }
+                    long window = new ObjectId(state.getT2().getId()).getTimestamp() - new ObjectId(state.getT1().getId()).getTimestamp();
+                    Number max = state.getT4().get("max", Number.class);
+                    boolean full = max != null && state.getT3() >= max.longValue();
+                    windowSeconds.set(full ? window : -1);
+
+                    if (!full || window >= retention.getSeconds()) {
+                        return Mono.empty();
+                    }
+                    double rate = state.getT3() / (double) Math.max(1, window);
+                    log.warn("Capped collection {} only covers {}s of events (target {}), observed {} events/s; it will be resized on next start",
+                            collectionName, window, retention, rate);
+                    return mongoOperations.upsert(query(where("_id").is(collectionName)),
+                            Update.update("observedRate", rate), SIZING_COLLECTION)
+                            .then();
+                });
+    }
+
+    @PreDestroy
+    public void stop() {
+
+        if (monitor != null) {
+            monitor.dispose();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+
+        Gauge.builder("item.capped.window.seconds", windowSeconds, AtomicLong::get)
+                .description("Seconds of events held by the full capped collection, -1 while it is not full")
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.learnreactivespring.initialize;
+
+import com.learnreactivespring.document.ItemCapped;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Synthetic event source for the capped collection, used to load the
+ * streaming tier. Events are produced at a fixed target rate, buffered in a
+ * bounded queue and written with grouped inserts. Batches are inserted one
+ * after the other so the capped collection keeps ObjectId order, which the
+ * SSE resume logic relies on.
+ */
+@Component
+@Slf4j
+public class ItemCappedGenerator implements MeterBinder {
+
+    private static final int MAX_TICKS_PER_SECOND = 100;
+
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
+    @Value("${item.generator.rate:1}")
+    int rate;
+
+    @Value("${item.generator.batch-size:1}")
+    int batchSize;
+
+    @Value("${item.generator.flush-interval:1s}")
+    Duration flushInterval;
+
+    @Value("${item.generator.buffer-size:10000}")
+    int bufferSize;
+
+    @Value("${item.generator.overflow-strategy:DROP_OLDEST}")
+    BufferOverflowStrategy overflowStrategy;
+
+    @Value("${item.generator.report-interval:10s}")
+    Duration reportInterval;
+
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong inserted = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private final Disposable.Composite subscriptions = Disposables.composite();
+
+    public void start() {
+
+        int ticksPerSecond = Math.max(1, Math.min(rate, MAX_TICKS_PER_SECOND));
+        Duration tick = Duration.ofNanos(1_000_000_000L / ticksPerSecond);
+        log.info("Generating {} capped items/s in batches of up to {}", rate, batchSize);
+
+        Flux<ItemCapped> events = Flux.interval(tick)
+                .concatMap(t -> Flux.range(0, eventsInTick(t % ticksPerSecond, ticksPerSecond)))
+                .map(i -> {
+                    long sequence = generated.getAndIncrement();
+                    return new ItemCapped(null, "Random Item " + sequence, (100.00 + sequence));
+                })
+                .onBackpressureBuffer(bufferSize, item -> dropped.incrementAndGet(), overflowStrategy);
+
+        subscriptions.add(events
+                .bufferTimeout(batchSize, flushInterval)
+                .concatMap(this::insertBatch)
+                .subscribe());
+
+        subscriptions.add(Flux.interval(reportInterval)
+                .map(t -> inserted.get())
+                .scan(new long[]{0, 0}, (previous, total) -> new long[]{total, total - previous[0]})
+                .skip(1)
+                .subscribe(totals -> log.info("Capped generator : {} items/s inserted, lag {} items, {} dropped, {} failed",
+                        totals[1] / Math.max(1, reportInterval.getSeconds()), lag(), dropped.get(), failed.get())));
+    }
+
+    /**
+     * Spreads {@code rate} events evenly over the ticks of one second.
+     */
+    private int eventsInTick(long tickInSecond, int ticksPerSecond) {
+
+        return (int) (((tickInSecond + 1) * rate) / ticksPerSecond - (tickInSecond * rate) / ticksPerSecond);
+    }
+
+    private Mono<Long> insertBatch(List<ItemCapped> batch) {
+
+        return mongoOperations.insert(batch, ItemCapped.class)
+                .count()
+                .doOnNext(inserted::addAndGet)
+                .onErrorResume(ex -> {
+                    log.warn("Failed to insert {} capped items : {}", batch.size(), ex.getMessage());
+                    failed.addAndGet(batch.size());
+                    return Mono.empty();
+                });
+    }
+
+    private long lag() {
+
+        return generated.get() - inserted.get() - dropped.get() - failed.get();
+    }
+
+    @PreDestroy
+    public void stop() {
+
+        subscriptions.dispose();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+
+        FunctionCounter.builder("item.generator.events", generated, AtomicLong::get).tag("state", "generated").register(registry);
+        FunctionCounter.builder("item.generator.events", inserted, AtomicLong::get).tag("state", "inserted").register(registry);
+        FunctionCounter.builder("item.generator.events", dropped, AtomicLong::get).tag("state", "dropped").register(registry);
+        FunctionCounter.builder("item.generator.events", failed, AtomicLong::get).tag("state", "failed").register(registry);
+        Gauge.builder("item.generator.lag", this, ItemCappedGenerator::lag).register(registry);
+    }
+
+}
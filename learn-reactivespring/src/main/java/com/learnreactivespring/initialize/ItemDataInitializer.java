@@ -8,14 +8,11 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Profile;
-import org.springframework.data.mongodb.core.CollectionOptions;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.ReactiveMongoOperations;
-import org.springframework.data.mongodb.core.query.Collation;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 
-import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
 
@@ -33,6 +30,12 @@ public class ItemDataInitializer implements CommandLineRunner {
     @Autowired
     ReactiveMongoOperations mongoOperations;
 
+    @Autowired
+    ItemCappedGenerator itemCappedGenerator;
+
+    @Autowired
+    CappedCollectionSizer cappedCollectionSizer;
+
     @Override
     public void run(String... args) throws Exception {
 
@@ -42,9 +45,8 @@ public class ItemDataInitializer implements CommandLineRunner {
     }
 
     private void createCappedCollection() {
-        mongoOperations.dropCollection(ItemCapped.class)
-                .then(mongoOperations.createCollection(ItemCapped.class,
-                        CollectionOptions.just(Collation.simple()).capped().maxDocuments(20).size(50000))).subscribe();
+        cappedCollectionSizer.ensureCappedCollection().block();
+        cappedCollectionSizer.startMonitoring();
 
     }
 
@@ -58,14 +60,7 @@ public class ItemDataInitializer implements CommandLineRunner {
 
     public void dataSetUpforCappedCollection(){
 
-        Flux<ItemCapped> itemCappedFlux = Flux.interval(Duration.ofSeconds(1))
-                .map(i -> new ItemCapped(null,"Random Item " + i, (100.00+i)));
-
-        itemReactiveCappedRepository
-                .insert(itemCappedFlux)
-                .subscribe((itemCapped -> {
-                    log.info("Inserted Item is " + itemCapped);
-                }));
+        itemCappedGenerator.start();
 
     }
 
@@ -73,7 +68,7 @@ public class ItemDataInitializer implements CommandLineRunner {
 
         itemReactiveRepository.deleteAll()
                 .thenMany(Flux.fromIterable(data()))
-                        .flatMap(itemReactiveRepository::save)
+                        .flatMap(itemReactiveRepository::saveSequenced)
                         .thenMany(itemReactiveRepository.findAll())
                         .subscribe((item -> {
                             System.out.println("Item inserted from CommandLineRunner : " + item);
@@ -0,0 +1,84 @@
+package com.learnreactivespring.initialize;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.document.ItemTombstone;
+import com.learnreactivespring.search.ItemSearchTerms;
+import com.learnreactivespring.sync.ItemSequence;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Creates the indexes declared on {@link Item} (automatic index creation is
+ * off by default since Spring Data MongoDB 3) and fills in search terms for
+ * items stored before they existed. Also indexes tombstones by sequence
+ * number and expires them after {@code item.sync.tombstone-retention}.
+ * Runs in every profile, before the application serves requests.
+ */
+@Component
+@Slf4j
+public class ItemIndexInitializer {
+
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
+    @Value("${item.sync.tombstone-retention:7d}")
+    Duration tombstoneRetention;
+
+    @PostConstruct
+    public void init() {
+
+        ReactiveIndexOperations indexOperations = mongoOperations.indexOps(Item.class);
+        IndexResolver indexResolver = IndexResolver.create(mongoOperations.getConverter().getMappingContext());
+
+        Flux.fromIterable(indexResolver.resolveIndexFor(Item.class))
+                .concatMap(indexOperations::ensureIndex)
+                .doOnNext(index -> log.info("Ensured index {} on {}", index, mongoOperations.getCollectionName(Item.class)))
+                .then(ensureTombstoneIndexes())
+                .then(backfillSearchTerms())
+                .block();
+    }
+
+    private Mono<Void> ensureTombstoneIndexes() {
+
+        ReactiveIndexOperations indexOperations = mongoOperations.indexOps(ItemTombstone.class);
+
+        return indexOperations.ensureIndex(new Index().on(ItemSequence.FIELD, Sort.Direction.ASC).named(ItemSequence.FIELD))
+                .then(indexOperations.ensureIndex(new Index().on("deletedAt", Sort.Direction.ASC).named("deletedAt")
+                        .expire(tombstoneRetention)))
+                .then();
+    }
+
+    private Mono<Void> backfillSearchTerms() {
+
+        return mongoOperations.find(query(where(ItemSearchTerms.FIELD).exists(false)), Document.class,
+                mongoOperations.getCollectionName(Item.class))
+                .flatMap(document -> mongoOperations.updateFirst(query(where("_id").is(document.get("_id"))),
+                        Update.update(ItemSearchTerms.FIELD, ItemSearchTerms.of(document.getString("description"))),
+                        Item.class))
+                .count()
+                .doOnNext(count -> {
+                    if (count > 0) {
+                        log.info("Added search terms to {} existing items", count);
+                    }
+                })
+                .then();
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.learnreactivespring.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.netty.channel.EventLoopGroup;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import org.springframework.http.client.reactive.ReactorResourceFactory;
+
+/**
+ * Pending task count of each Netty event loop serving HTTP. A queue that
+ * keeps growing means something is blocking or hogging an event loop.
+ */
+public class EventLoopMetrics implements MeterBinder {
+
+    private final ReactorResourceFactory reactorResourceFactory;
+
+    public EventLoopMetrics(ReactorResourceFactory reactorResourceFactory) {
+        this.reactorResourceFactory = reactorResourceFactory;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+
+        EventLoopGroup eventLoops = reactorResourceFactory.getLoopResources().onServer(true);
+        int index = 0;
+        for (EventExecutor executor : eventLoops) {
+            if (executor instanceof SingleThreadEventExecutor) {
+                Gauge.builder("reactor.netty.eventloop.pending.tasks", (SingleThreadEventExecutor) executor,
+                        SingleThreadEventExecutor::pendingTasks)
+                        .description("Tasks queued on a Netty event loop")
+                        .tag("loop", String.valueOf(index))
+                        .register(registry);
+            }
+            index++;
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+package com.learnreactivespring.metrics;
+
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import org.springframework.boot.actuate.metrics.web.reactive.server.WebFluxTagsContributor;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.function.server.HandlerFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.util.pattern.PathPattern;
+
+/**
+ * Adds {@code route} and {@code style} tags to {@code http.server.requests}
+ * so ItemController and ItemsRouter endpoints can be compared side by side.
+ * The route is the matched path pattern for both styles, falling back to the
+ * pattern functional routing records when the handler mapping did not.
+ */
+@Component
+public class ItemWebFluxTagsContributor implements WebFluxTagsContributor {
+
+    @Override
+    public Iterable<Tag> httpRequestTags(ServerWebExchange exchange, Throwable ex) {
+
+        return Tags.of(Tag.of("route", route(exchange)), Tag.of("style", style(exchange)));
+    }
+
+    private static String route(ServerWebExchange exchange) {
+
+        Object pattern = exchange.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        if (pattern == null) {
+            pattern = exchange.getAttribute(RouterFunctions.MATCHING_PATTERN_ATTRIBUTE);
+        }
+        if (pattern instanceof PathPattern) {
+            return ((PathPattern) pattern).getPatternString();
+        }
+        return pattern != null ? pattern.toString() : "UNKNOWN";
+    }
+
+    private static String style(ServerWebExchange exchange) {
+
+        Object handler = exchange.getAttribute(HandlerMapping.BEST_MATCHING_HANDLER_ATTRIBUTE);
+        if (handler instanceof HandlerMethod) {
+            return "annotated";
+        }
+        if (handler instanceof HandlerFunction) {
+            return "functional";
+        }
+        return "none";
+    }
+
+}
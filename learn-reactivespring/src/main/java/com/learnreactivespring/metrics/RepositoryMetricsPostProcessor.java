@@ -0,0 +1,111 @@
+package com.learnreactivespring.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.Advised;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.data.repository.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Times every call on the reactive repositories, from subscription to
+ * completion, as {@code item.repository.invocations} tagged with repository,
+ * method and outcome, and counts failures in {@code item.repository.errors}
+ * by exception. Spring Data repositories are already AOP proxies, so the
+ * interceptor is added in front of the existing proxy's advice chain rather
+ * than wrapping it again.
+ */
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor {
+
+    private final ObjectProvider<MeterRegistry> meterRegistry;
+
+    public RepositoryMetricsPostProcessor(ObjectProvider<MeterRegistry> meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+
+        if (bean instanceof Repository && bean instanceof Advised) {
+            Advised advised = (Advised) bean;
+            String repository = Arrays.stream(advised.getProxiedInterfaces())
+                    .filter(Repository.class::isAssignableFrom)
+                    .findFirst()
+                    .map(Class::getSimpleName)
+                    .orElse(beanName);
+            advised.addAdvice(0, timing(repository));
+        }
+        return bean;
+    }
+
+    private MethodInterceptor timing(String repository) {
+
+        return invocation -> {
+            Object result = invocation.proceed();
+            String method = invocation.getMethod().getName();
+
+            if (result instanceof Mono) {
+                return Mono.defer(() -> {
+                    Observation observation = new Observation(repository, method);
+                    return ((Mono<?>) result)
+                            .doOnError(observation::failed)
+                            .doFinally(observation::stop);
+                });
+            }
+            if (result instanceof Flux) {
+                return Flux.defer(() -> {
+                    Observation observation = new Observation(repository, method);
+                    return ((Flux<?>) result)
+                            .doOnError(observation::failed)
+                            .doFinally(observation::stop);
+                });
+            }
+            return result;
+        };
+    }
+
+    private class Observation {
+
+        private final String repository;
+        private final String method;
+        private final Timer.Sample sample;
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        Observation(String repository, String method) {
+            this.repository = repository;
+            this.method = method;
+            this.sample = Timer.start(meterRegistry.getObject());
+        }
+
+        void failed(Throwable ex) {
+
+            error.set(ex);
+        }
+
+        void stop(SignalType signal) {
+
+            MeterRegistry registry = meterRegistry.getObject();
+            Throwable ex = error.get();
+            String outcome = ex != null ? "error" : signal == SignalType.CANCEL ? "cancelled" : "success";
+            Tags tags = Tags.of("repository", repository, "method", method);
+
+            sample.stop(Timer.builder("item.repository.invocations")
+                    .description("Reactive repository calls, from subscription to completion")
+                    .tags(tags.and("outcome", outcome))
+                    .register(registry));
+            if (ex != null) {
+                registry.counter("item.repository.errors", tags.and("exception", ex.getClass().getSimpleName()))
+                        .increment();
+            }
+        }
+    }
+
+}
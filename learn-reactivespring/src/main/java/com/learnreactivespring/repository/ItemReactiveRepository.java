@@ -5,7 +5,7 @@ import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
-public interface ItemReactiveRepository extends ReactiveMongoRepository<Item,String> {
+public interface ItemReactiveRepository extends ReactiveMongoRepository<Item,String>, ItemReactiveRepositoryCustom {
 
     Mono<Item> findByDescription(String description);
 }
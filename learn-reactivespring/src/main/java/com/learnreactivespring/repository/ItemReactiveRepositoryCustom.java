@@ -0,0 +1,70 @@
+package com.learnreactivespring.repository;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.domain.ItemQuery;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+public interface ItemReactiveRepositoryCustom {
+
+    /**
+     * Saves with a {@code lastModified} number reserved around the whole save
+     * and released however it ends. Plain {@code save} still stamps a number,
+     * but one held by a failed save is only given up after the write timeout.
+     */
+    Mono<Item> saveSequenced(Item item);
+
+    /**
+     * Sets price and description with a single atomic findAndModify and returns
+     * the updated item, or an empty Mono if no item has the given id.
+     */
+    Mono<Item> updatePriceAndDescription(String id, Double price, String description);
+
+    /**
+     * Returns up to {@code limit} items ordered by id, starting strictly after
+     * {@code afterId} (or from the beginning when it is null). This is a range
+     * scan on the _id index, so deep pages cost the same as the first one.
+     */
+    Flux<Item> findPageAfter(String afterId, int limit);
+
+    /**
+     * Keyset page of the items matching {@code itemQuery}, in its order,
+     * starting strictly after the item with sort value {@code afterValue} and
+     * id {@code afterId} (from the beginning when afterId is null). Filter,
+     * sort and projection all run in Mongo. A {@code limit} of 0 reads every
+     * matching item.
+     */
+    Flux<Item> findPage(ItemQuery itemQuery, Object afterValue, String afterId, int limit);
+
+    /**
+     * Same page as {@link #findPageAfter(String, int)}, but as undecoded BSON
+     * straight from the driver, for read paths that never need Item objects.
+     * A {@code limit} of 0 reads every item.
+     */
+    Flux<RawBsonDocument> findRawPageAfter(String afterId, int limit);
+
+    /**
+     * Where a page of {@code limit} items after {@code afterId} ends, read
+     * from the _id index alone: the id of its last item, then the id of the
+     * item after it. Fewer come back when it is the last page.
+     */
+    Flux<BsonValue> findRawPageEnd(String afterId, int limit);
+
+    /**
+     * Raw items after {@code afterId} up to and including {@code lastId}, in
+     * id order.
+     */
+    Flux<RawBsonDocument> findRawPageThrough(String afterId, BsonValue lastId);
+
+    /**
+     * Up to {@code limit} items having, for every prefix, a search term that
+     * starts with it. Prefixes must be normalized search terms themselves
+     * (lower case letters and digits), which keeps the regexes anchored and
+     * answerable from the searchTerms index.
+     */
+    Flux<Item> findByTermPrefixes(List<String> prefixes, int limit);
+}
@@ -0,0 +1,256 @@
+package com.learnreactivespring.repository;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.domain.ItemQuery;
+import com.learnreactivespring.search.ItemSearchTerms;
+import com.learnreactivespring.sync.ItemSequence;
+import com.learnreactivespring.sync.LastModifiedCallback;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+public class ItemReactiveRepositoryCustomImpl implements ItemReactiveRepositoryCustom {
+
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
+    /**
+     * Not there in repository slice tests, which skip components.
+     */
+    @Autowired
+    ObjectProvider<QueryPlanInspector> queryPlanInspector;
+
+    @Autowired
+    ObjectProvider<ItemSequence> itemSequence;
+
+    /**
+     * Converts an item id the same way the mapping layer does, for code that
+     * talks to the driver directly: valid ObjectId hex strings become ObjectIds.
+     */
+    public static Object toMongoId(String id) {
+
+        return ObjectId.isValid(id) ? new ObjectId(id) : id;
+    }
+
+    @Override
+    public Mono<Item> saveSequenced(Item item) {
+
+        ItemSequence sequence = itemSequence.getIfAvailable();
+        if (sequence == null) {
+            return mongoOperations.save(item);
+        }
+        return sequence.withSequence(1, lastModified -> mongoOperations.save(item)
+                .subscriberContext(context -> context.put(LastModifiedCallback.LAST_MODIFIED, lastModified)));
+    }
+
+    @Override
+    public Mono<Item> updatePriceAndDescription(String id, Double price, String description) {
+
+        Update update = new Update()
+                .set("price", price)
+                .set("description", description)
+                .set(ItemSearchTerms.FIELD, ItemSearchTerms.of(description));
+
+        ItemSequence sequence = itemSequence.getIfAvailable();
+        if (sequence == null) {
+            return mongoOperations.findAndModify(query(where("id").is(id)), update,
+                    FindAndModifyOptions.options().returnNew(true), Item.class);
+        }
+        return sequence.withSequence(1, lastModified ->
+                mongoOperations.findAndModify(query(where("id").is(id)), update.set(ItemSequence.FIELD, lastModified),
+                        FindAndModifyOptions.options().returnNew(true), Item.class));
+    }
+
+    @Override
+    public Flux<Item> findPageAfter(String afterId, int limit) {
+
+        Query query = new Query()
+                .with(Sort.by(Sort.Direction.ASC, "id"))
+                .limit(limit);
+        if (afterId != null) {
+            query.addCriteria(idAfter(afterId));
+        }
+
+        return mongoOperations.find(query, Item.class);
+    }
+
+    @Override
+    public Flux<Item> findPage(ItemQuery itemQuery, Object afterValue, String afterId, int limit) {
+
+        List<Criteria> criteria = new ArrayList<>();
+        if (itemQuery.getMinPrice() != null || itemQuery.getMaxPrice() != null) {
+            Criteria price = where("price");
+            if (itemQuery.getMinPrice() != null) {
+                price.gte(itemQuery.getMinPrice());
+            }
+            if (itemQuery.getMaxPrice() != null) {
+                price.lte(itemQuery.getMaxPrice());
+            }
+            criteria.add(price);
+        }
+        if (itemQuery.getDescriptionPrefix() != null) {
+            criteria.add(where("description").regex("^" + escapeRegex(itemQuery.getDescriptionPrefix())));
+        }
+        if (afterId != null) {
+            criteria.add(after(itemQuery.getSort(), itemQuery.getDirection(), afterValue, afterId));
+        }
+
+        Query query = criteria.isEmpty()
+                ? new Query()
+                : new Query(new Criteria().andOperator(criteria.toArray(new Criteria[0])));
+        Sort sort = Sort.by(itemQuery.getDirection(), itemQuery.getSort());
+        if (!"id".equals(itemQuery.getSort())) {
+            sort = sort.and(Sort.by(itemQuery.getDirection(), "id"));
+        }
+        query.with(sort).limit(limit);
+        if (itemQuery.getFields() != null) {
+            itemQuery.getFields().forEach(field -> query.fields().include(field));
+            query.fields().include(itemQuery.getSort());
+        }
+
+        queryPlanInspector.ifAvailable(inspector -> inspector.inspect(query, Item.class));
+        return mongoOperations.find(query, Item.class);
+    }
+
+    /**
+     * Position strictly after (ascending) or before (descending) the given
+     * sort value and id. Null and missing sort values order before
+     * everything else, so they come first ascending and last descending;
+     * range operators never match them, hence the explicit null clauses.
+     */
+    static Criteria after(String sortField, Sort.Direction direction, Object afterValue, String afterId) {
+
+        Criteria idAfter = direction.isAscending() ? idAfter(afterId) : idBefore(afterId);
+        if ("id".equals(sortField)) {
+            return idAfter;
+        }
+        Criteria sameValue = new Criteria().andOperator(where(sortField).is(afterValue), idAfter);
+        if (afterValue == null) {
+            return direction.isAscending()
+                    ? new Criteria().orOperator(where(sortField).ne(null), sameValue)
+                    : sameValue;
+        }
+        if (direction.isAscending()) {
+            return new Criteria().orOperator(where(sortField).gt(afterValue), sameValue);
+        }
+        return new Criteria().orOperator(where(sortField).lt(afterValue), sameValue, where(sortField).is(null));
+    }
+
+    /**
+     * Escapes everything but letters, digits and spaces, so the prefix is
+     * matched literally and the regex stays a simple anchored prefix that
+     * Mongo answers with an index range scan.
+     */
+    static String escapeRegex(String text) {
+
+        return text.replaceAll("[^\\p{L}\\p{N} ]", "\\\\$0");
+    }
+
+    @Override
+    public Flux<RawBsonDocument> findRawPageAfter(String afterId, int limit) {
+
+        Document filter = afterId == null ? new Document() : idAfter(afterId).getCriteriaObject();
+
+        return mongoOperations.execute(Item.class, collection ->
+                collection.withDocumentClass(RawBsonDocument.class)
+                        .find(filter)
+                        .sort(new Document("_id", 1))
+                        .limit(limit));
+    }
+
+    @Override
+    public Flux<BsonValue> findRawPageEnd(String afterId, int limit) {
+
+        Document filter = afterId == null ? new Document() : idAfter(afterId).getCriteriaObject();
+
+        return mongoOperations.execute(Item.class, collection ->
+                collection.withDocumentClass(RawBsonDocument.class)
+                        .find(filter)
+                        .projection(new Document("_id", 1))
+                        .sort(new Document("_id", 1))
+                        .skip(limit - 1)
+                        .limit(2))
+                .map(document -> document.get("_id"));
+    }
+
+    @Override
+    public Flux<RawBsonDocument> findRawPageThrough(String afterId, BsonValue lastId) {
+
+        Criteria range = afterId == null ? idThrough(lastId) : new Criteria().andOperator(idAfter(afterId), idThrough(lastId));
+
+        return mongoOperations.execute(Item.class, collection ->
+                collection.withDocumentClass(RawBsonDocument.class)
+                        .find(range.getCriteriaObject())
+                        .sort(new Document("_id", 1)));
+    }
+
+    @Override
+    public Flux<Item> findByTermPrefixes(List<String> prefixes, int limit) {
+
+        Criteria[] allPrefixes = prefixes.stream()
+                .map(prefix -> where(ItemSearchTerms.FIELD).regex("^" + prefix))
+                .toArray(Criteria[]::new);
+
+        return mongoOperations.find(query(new Criteria().andOperator(allPrefixes)).limit(limit), Item.class);
+    }
+
+    /**
+     * Ids are a mix of ObjectIds and plain strings. Mongo orders all strings
+     * before all ObjectIds and only compares values of the same type, so a
+     * string position also has to let every ObjectId through.
+     */
+    static Criteria idAfter(String afterId) {
+
+        if (ObjectId.isValid(afterId)) {
+            return where("_id").gt(new ObjectId(afterId));
+        }
+        return new Criteria().orOperator(
+                where("_id").gt(afterId),
+                where("_id").type(7)); // 7 = ObjectId
+    }
+
+    /**
+     * Inclusive upper bound matching {@link #idAfter(String)}: up to an
+     * ObjectId come every string and the smaller ObjectIds.
+     */
+    static Criteria idThrough(BsonValue lastId) {
+
+        if (lastId.isObjectId()) {
+            return new Criteria().orOperator(
+                    where("_id").lte(lastId.asObjectId().getValue()),
+                    where("_id").type(2)); // 2 = String
+        }
+        return where("_id").lte(lastId);
+    }
+
+    /**
+     * Descending counterpart of {@link #idAfter(String)}: before an ObjectId
+     * come smaller ObjectIds and every string.
+     */
+    static Criteria idBefore(String beforeId) {
+
+        if (ObjectId.isValid(beforeId)) {
+            return new Criteria().orOperator(
+                    where("_id").lt(new ObjectId(beforeId)),
+                    where("_id").type(2)); // 2 = String
+        }
+        return where("_id").lt(beforeId);
+    }
+}
@@ -0,0 +1,110 @@
+package com.learnreactivespring.repository;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Explains each distinct query shape (filter fields and operators, sort and
+ * projection, without the values) once, in the background, and warns when
+ * Mongo's winning plan scans the whole collection. Every such shape is
+ * counted in {@code item.query.collection.scans}.
+ */
+@Component
+@Slf4j
+public class QueryPlanInspector {
+
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${item.query.explain.enabled:true}")
+    boolean enabled;
+
+    private final Set<String> inspectedShapes = ConcurrentHashMap.newKeySet();
+
+    public void inspect(Query query, Class<?> entityClass) {
+
+        if (!enabled) {
+            return;
+        }
+
+        MongoPersistentEntity<?> entity = mongoOperations.getConverter().getMappingContext().getRequiredPersistentEntity(entityClass);
+        QueryMapper queryMapper = new QueryMapper(mongoOperations.getConverter());
+        Document filter = queryMapper.getMappedObject(query.getQueryObject(), entity);
+        Document sort = queryMapper.getMappedSort(query.getSortObject(), entity);
+        Document projection = queryMapper.getMappedFields(query.getFieldsObject(), entity);
+
+        String shape = shape(filter) + " sort " + sort.toJson() + " fields " + projection.keySet();
+        if (!inspectedShapes.add(shape)) {
+            return;
+        }
+
+        Document find = new Document("find", mongoOperations.getCollectionName(entityClass))
+                .append("filter", filter)
+                .append("sort", sort)
+                .append("projection", projection);
+        if (query.getLimit() > 0) {
+            find.append("limit", query.getLimit());
+        }
+
+        mongoOperations.executeCommand(new Document("explain", find).append("verbosity", "queryPlanner"))
+                .subscribe(explained -> {
+                    Document queryPlanner = explained.get("queryPlanner", Document.class);
+                    if (queryPlanner != null && hasStage(queryPlanner.get("winningPlan"), "COLLSCAN")) {
+                        log.warn("Collection scan on {} for query shape {}", mongoOperations.getCollectionName(entityClass), shape);
+                        meterRegistry.counter("item.query.collection.scans").increment();
+                    }
+                }, ex -> log.debug("Could not explain query shape {} : {}", shape, ex.getMessage()));
+    }
+
+    static boolean hasStage(Object plan, String stage) {
+
+        if (plan instanceof Document) {
+            Document document = (Document) plan;
+            if (stage.equals(document.get("stage"))) {
+                return true;
+            }
+            return document.values().stream().anyMatch(value -> hasStage(value, stage));
+        }
+        if (plan instanceof List) {
+            return ((List<?>) plan).stream().anyMatch(value -> hasStage(value, stage));
+        }
+        return false;
+    }
+
+    /**
+     * The filter with every value replaced by "?", keeping field names and
+     * operators.
+     */
+    static String shape(Object filter) {
+
+        if (filter instanceof Map) {
+            return ((Map<?, ?>) filter).entrySet().stream()
+                    .map(entry -> entry.getKey() + ":" + shape(entry.getValue()))
+                    .collect(Collectors.joining(",", "{", "}"));
+        }
+        if (filter instanceof List) {
+            return ((List<?>) filter).stream()
+                    .map(QueryPlanInspector::shape)
+                    .collect(Collectors.joining(",", "[", "]"));
+        }
+        return "?";
+    }
+
+}
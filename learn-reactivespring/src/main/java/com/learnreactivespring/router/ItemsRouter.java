@@ -4,13 +4,25 @@ import com.learnreactivespring.handler.ItemsHandler;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RequestPredicate;
 import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.RouterFunctions;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import static com.learnreactivespring.config.CodecConfig.APPLICATION_NDJSON;
+import static com.learnreactivespring.config.CodecConfig.ITEM_FLUX_MEDIA_TYPES;
+import static com.learnreactivespring.config.CodecConfig.ITEM_MEDIA_TYPES;
+import static com.learnreactivespring.config.CodecConfig.ITEM_STREAM_MEDIA_TYPES;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_BATCH_GET_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_BULK_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_CHANGES_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_EVENT_STREAM_FUNCTIONAL_END_POINT_V1;
 import static com.learnreactivespring.constants.ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_SEARCH_FUNCTIONAL_END_POINT_V1;
 import static com.learnreactivespring.constants.ItemConstants.ITEM_STREAM_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_SYNC_FUNCTIONAL_END_POINT_V1;
 import static org.springframework.http.MediaType.APPLICATION_JSON;
+import static org.springframework.http.MediaType.TEXT_EVENT_STREAM;
 import static org.springframework.web.reactive.function.server.RequestPredicates.*;
 
 @Configuration
@@ -19,17 +31,31 @@ public class ItemsRouter {
     @Bean
     public RouterFunction<ServerResponse> itemsRoute(ItemsHandler itemsHandler){
 
+        RequestPredicate acceptsItem = accept(ITEM_MEDIA_TYPES.toArray(new MediaType[0]));
+
         return RouterFunctions
-                .route(GET(ITEM_FUNCTIONAL_END_POINT_V1).and(accept(APPLICATION_JSON))
+                .route(GET(ITEM_FUNCTIONAL_END_POINT_V1).and(accept(APPLICATION_JSON)).and(queryParam("raw", "true"::equals))
+                ,itemsHandler::getAllItemsRaw)
+                .andRoute(GET(ITEM_FUNCTIONAL_END_POINT_V1).and(acceptsItem)
                 ,itemsHandler::getAllItems)
-                .andRoute(GET(ITEM_FUNCTIONAL_END_POINT_V1+"/{id}").and(accept(APPLICATION_JSON))
+                .andRoute(GET(ITEM_SEARCH_FUNCTIONAL_END_POINT_V1).and(accept(ITEM_FLUX_MEDIA_TYPES.toArray(new MediaType[0])))
+                ,itemsHandler::searchItems)
+                .andRoute(GET(ITEM_SYNC_FUNCTIONAL_END_POINT_V1).and(acceptsItem)
+                ,itemsHandler::syncItems)
+                .andRoute(GET(ITEM_FUNCTIONAL_END_POINT_V1+"/{id}").and(acceptsItem)
                 ,itemsHandler::getOneItem)
-                .andRoute(POST(ITEM_FUNCTIONAL_END_POINT_V1).and(accept(APPLICATION_JSON))
+                .andRoute(POST(ITEM_FUNCTIONAL_END_POINT_V1).and(acceptsItem)
                 ,itemsHandler::createItem)
+                .andRoute(POST(ITEM_BATCH_GET_FUNCTIONAL_END_POINT_V1)
+                ,itemsHandler::batchGet)
+                .andRoute(POST(ITEM_BULK_FUNCTIONAL_END_POINT_V1).and(contentType(APPLICATION_NDJSON))
+                ,itemsHandler::createItems)
                 .andRoute(DELETE(ITEM_FUNCTIONAL_END_POINT_V1+"/{id}").and(accept(APPLICATION_JSON))
                         ,itemsHandler::deleteItem)
-                .andRoute(PUT(ITEM_FUNCTIONAL_END_POINT_V1+"/{id}").and(accept(APPLICATION_JSON))
-                        ,itemsHandler::updateItem);
+                .andRoute(PUT(ITEM_FUNCTIONAL_END_POINT_V1+"/{id}").and(acceptsItem)
+                        ,itemsHandler::updateItem)
+                .andRoute(PATCH(ITEM_BULK_FUNCTIONAL_END_POINT_V1).and(contentType(APPLICATION_NDJSON))
+                        ,itemsHandler::updateItems);
     }
 
     @Bean
@@ -44,8 +70,14 @@ public class ItemsRouter {
     public RouterFunction<ServerResponse> itemStreamRoute(ItemsHandler itemsHandler){
 
         return RouterFunctions
-                .route(GET(ITEM_STREAM_FUNCTIONAL_END_POINT_V1).and(accept(APPLICATION_JSON))
-                        ,itemsHandler::itemsStream);
+                .route(GET(ITEM_STREAM_FUNCTIONAL_END_POINT_V1).and(accept(APPLICATION_JSON).or(accept(ITEM_STREAM_MEDIA_TYPES.toArray(new MediaType[0]))))
+                        ,itemsHandler::itemsStream)
+                .andRoute(GET(ITEM_EVENT_STREAM_FUNCTIONAL_END_POINT_V1).and(accept(TEXT_EVENT_STREAM))
+                        ,itemsHandler::itemsEventStream)
+                .andRoute(GET(ITEM_CHANGES_FUNCTIONAL_END_POINT_V1).and(accept(TEXT_EVENT_STREAM))
+                        ,itemsHandler::itemChangeEvents)
+                .andRoute(GET(ITEM_CHANGES_FUNCTIONAL_END_POINT_V1).and(accept(APPLICATION_NDJSON))
+                        ,itemsHandler::itemChanges);
 
     }
 
@@ -0,0 +1,40 @@
+package com.learnreactivespring.search;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Search terms of an item description: the lower-cased letter/digit runs,
+ * without duplicates. They are stored with each item in the indexed
+ * {@code searchTerms} array, so a case-insensitive prefix search becomes an
+ * anchored, case-sensitive regex that Mongo answers from the index.
+ */
+public final class ItemSearchTerms {
+
+    public static final String FIELD = "searchTerms";
+
+    private ItemSearchTerms() {
+    }
+
+    public static List<String> of(String text) {
+
+        Set<String> terms = new LinkedHashSet<>();
+        if (text != null) {
+            for (String term : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+                if (!term.isEmpty()) {
+                    terms.add(term);
+                }
+            }
+        }
+        return new ArrayList<>(terms);
+    }
+
+    public static String normalize(String text) {
+
+        return String.join(" ", of(text));
+    }
+
+}
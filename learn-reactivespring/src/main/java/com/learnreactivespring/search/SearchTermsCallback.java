@@ -0,0 +1,24 @@
+package com.learnreactivespring.search;
+
+import com.learnreactivespring.document.Item;
+import org.bson.Document;
+import org.reactivestreams.Publisher;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveBeforeSaveCallback;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Adds the search terms to every Item document saved through the template or
+ * the repository. The terms live only in the stored document, not on Item.
+ */
+@Component
+public class SearchTermsCallback implements ReactiveBeforeSaveCallback<Item> {
+
+    @Override
+    public Publisher<Item> onBeforeSave(Item item, Document document, String collection) {
+
+        document.put(ItemSearchTerms.FIELD, ItemSearchTerms.of(item.getDescription()));
+        return Mono.just(item);
+    }
+
+}
@@ -0,0 +1,189 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.cache.ItemCache;
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.domain.ItemBatchFailure;
+import com.learnreactivespring.domain.ItemBatchResult;
+import com.learnreactivespring.domain.ItemBatchUpdateResult;
+import com.learnreactivespring.domain.ItemDelta;
+import com.learnreactivespring.search.ItemSearchTerms;
+import com.learnreactivespring.sync.ItemSequence;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static com.learnreactivespring.repository.ItemReactiveRepositoryCustomImpl.toMongoId;
+
+@Service
+@Slf4j
+public class ItemBulkService {
+
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
+    @Autowired
+    ItemCache itemCache;
+
+    @Autowired
+    ItemSequence itemSequence;
+
+    @Value("${item.bulk.batch-size:1000}")
+    int batchSize;
+
+    @Value("${item.bulk.max-wait:100ms}")
+    Duration maxWait;
+
+    @Value("${item.bulk.concurrency:4}")
+    int concurrency;
+
+    /**
+     * Groups the incoming items into batches bounded by size and time and writes
+     * each batch with one unordered insertMany. One result is emitted per batch,
+     * in request order, so the caller never has to hold the whole import in memory.
+     */
+    public Flux<ItemBatchResult> insertAll(Flux<Item> items) {
+
+        return inBatches(items, this::insertBatch);
+    }
+
+    /**
+     * Applies price/description deltas as unordered bulkWrite batches of
+     * $set updates. Only the fields present in a delta are written.
+     */
+    public Flux<ItemBatchUpdateResult> updateAll(Flux<ItemDelta> deltas, boolean upsert) {
+
+        return inBatches(deltas, (batch, firstIndex, list) -> updateBatch(batch, firstIndex, list, upsert));
+    }
+
+    private <T, R> Flux<R> inBatches(Flux<T> source, BatchWriter<T, R> writer) {
+
+        AtomicLong offset = new AtomicLong();
+
+        return source
+                .bufferTimeout(batchSize, maxWait)
+                .index()
+                .flatMapSequential(batch -> {
+                    long firstIndex = offset.getAndAdd(batch.getT2().size());
+                    return writer.write(batch.getT1(), firstIndex, batch.getT2());
+                }, concurrency);
+    }
+
+    private Mono<ItemBatchResult> insertBatch(long batch, long firstIndex, List<Item> items) {
+
+        MongoConverter converter = mongoOperations.getConverter();
+
+        return itemSequence.withSequence(items.size(), firstLastModified -> {
+            List<Document> documents = new ArrayList<>();
+            for (int i = 0; i < items.size(); i++) {
+                Document document = new Document();
+                converter.write(items.get(i), document);
+                document.put(ItemSearchTerms.FIELD, ItemSearchTerms.of(items.get(i).getDescription()));
+                document.put(ItemSequence.FIELD, firstLastModified + i);
+                documents.add(document);
+            }
+
+            return mongoOperations.execute(Item.class, collection ->
+                    Mono.from(collection.insertMany(documents, new InsertManyOptions().ordered(false)))
+                            .map(result -> new ItemBatchResult(batch, documents.size(), Collections.emptyList()))
+                            .onErrorResume(MongoBulkWriteException.class, ex -> Mono.just(failedBatch(batch, firstIndex, ex))))
+                    .next();
+        });
+    }
+
+    private ItemBatchResult failedBatch(long batch, long firstIndex, MongoBulkWriteException ex) {
+
+        List<ItemBatchFailure> failures = ex.getWriteErrors().stream()
+                .map(error -> new ItemBatchFailure(firstIndex + error.getIndex(), error.getMessage()))
+                .collect(Collectors.toList());
+        log.warn("Batch {} inserted {} items, {} failed", batch, ex.getWriteResult().getInsertedCount(), failures.size());
+
+        return new ItemBatchResult(batch, ex.getWriteResult().getInsertedCount(), failures);
+    }
+
+    private Mono<ItemBatchUpdateResult> updateBatch(long batch, long firstIndex, List<ItemDelta> deltas, boolean upsert) {
+
+        UpdateOptions options = new UpdateOptions().upsert(upsert);
+        List<WriteModel<Document>> models = new ArrayList<>();
+        List<Long> positions = new ArrayList<>();
+        List<ItemBatchFailure> failures = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+
+        List<Document> updates = new ArrayList<>();
+
+        for (int i = 0; i < deltas.size(); i++) {
+            ItemDelta delta = deltas.get(i);
+            Document fields = new Document();
+            if (delta.getPrice() != null) {
+                fields.append("price", delta.getPrice());
+            }
+            if (delta.getDescription() != null) {
+                fields.append("description", delta.getDescription());
+                fields.append(ItemSearchTerms.FIELD, ItemSearchTerms.of(delta.getDescription()));
+            }
+            if (delta.getId() == null || fields.isEmpty()) {
+                failures.add(new ItemBatchFailure(firstIndex + i, "A delta needs an id and a price or description"));
+                continue;
+            }
+            updates.add(fields);
+            models.add(new UpdateOneModel<>(new Document("_id", toMongoId(delta.getId())),
+                    new Document("$set", fields), options));
+            positions.add(firstIndex + i);
+            ids.add(delta.getId());
+        }
+
+        if (models.isEmpty()) {
+            return Mono.just(new ItemBatchUpdateResult(batch, 0, 0, 0, failures));
+        }
+
+        return itemSequence.withSequence(updates.size(), firstLastModified -> {
+            for (int i = 0; i < updates.size(); i++) {
+                updates.get(i).put(ItemSequence.FIELD, firstLastModified + i);
+            }
+
+            return mongoOperations.execute(Item.class, collection ->
+                    Mono.from(collection.bulkWrite(models, new BulkWriteOptions().ordered(false)))
+                            .map(result -> updateResult(batch, result, failures))
+                            .onErrorResume(MongoBulkWriteException.class, ex -> {
+                                ex.getWriteErrors().forEach(error ->
+                                        failures.add(new ItemBatchFailure(positions.get(error.getIndex()), error.getMessage())));
+                                log.warn("Batch {} had {} failed updates", batch, failures.size());
+                                return Mono.just(updateResult(batch, ex.getWriteResult(), failures));
+                            }))
+                    .next();
+        })
+                .doOnNext(result -> ids.forEach(itemCache::evict));
+    }
+
+    private ItemBatchUpdateResult updateResult(long batch, BulkWriteResult result, List<ItemBatchFailure> failures) {
+
+        return new ItemBatchUpdateResult(batch, result.getMatchedCount(), result.getModifiedCount(),
+                result.getUpserts().size(), failures);
+    }
+
+    @FunctionalInterface
+    private interface BatchWriter<T, R> {
+
+        Mono<R> write(long batch, long firstIndex, List<T> items);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.domain.ItemLookupResult;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Service
+public class ItemLookupService {
+
+    @Autowired
+    ItemReactiveRepository itemReactiveRepository;
+
+    @Value("${item.batch-get.chunk-size:500}")
+    int chunkSize;
+
+    @Value("${item.batch-get.concurrency:4}")
+    int concurrency;
+
+    @Value("${item.batch-get.max-ids:10000}")
+    int maxIds;
+
+    /**
+     * Looks the ids up in chunks of {@code chunk-size}, one $in query per
+     * chunk with up to {@code concurrency} chunks in flight. Results are
+     * emitted as each chunk's query returns, not in request order; every
+     * distinct id gets exactly one result, ids without an item a missing one.
+     * <p>
+     * The ids are read in full (no more than {@code max-ids} + 1 of them)
+     * before the first query, so a request over the limit is rejected with
+     * 400 before any result has been written.
+     */
+    public Flux<ItemLookupResult> lookup(Flux<String> ids) {
+
+        return ids
+                .distinct()
+                .take(maxIds + 1L)
+                .collectList()
+                .flatMapMany(distinctIds -> distinctIds.size() > maxIds
+                        ? Flux.<String>error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "At most " + maxIds + " ids per batchGet"))
+                        : Flux.fromIterable(distinctIds))
+                .buffer(chunkSize)
+                .flatMap(this::lookupChunk, concurrency);
+    }
+
+    private Flux<ItemLookupResult> lookupChunk(List<String> chunk) {
+
+        Set<String> found = ConcurrentHashMap.newKeySet();
+
+        return itemReactiveRepository.findAllById(chunk)
+                .doOnNext(item -> found.add(item.getId()))
+                .map(ItemLookupResult::found)
+                .concatWith(Flux.defer(() -> Flux.fromIterable(chunk)
+                        .filter(id -> !found.contains(id))
+                        .map(ItemLookupResult::missing)));
+    }
+
+    /**
+     * Ids sent as newline delimited text, one per line, either bare or as
+     * JSON strings.
+     */
+    public static Flux<String> parseIdLines(Flux<String> lines) {
+
+        return lines
+                .map(String::trim)
+                .filter(line -> !line.isEmpty())
+                .map(line -> line.length() > 1 && line.startsWith("\"") && line.endsWith("\"")
+                        ? line.substring(1, line.length() - 1)
+                        : line);
+    }
+
+}
@@ -0,0 +1,262 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.codec.RawItemJsonWriter;
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.domain.ItemPage;
+import com.learnreactivespring.domain.ItemQuery;
+import com.learnreactivespring.domain.RawItemPage;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+@Service
+public class ItemPageService {
+
+    @Autowired
+    ItemReactiveRepository itemReactiveRepository;
+
+    @Autowired
+    RawItemJsonWriter rawItemJsonWriter;
+
+    private static final List<String> ITEM_FIELDS = Arrays.asList("id", "description", "price");
+
+    @Value("${item.page.default-limit:1000}")
+    int defaultLimit;
+
+    @Value("${item.page.max-limit:5000}")
+    int maxLimit;
+
+    /**
+     * Reads one keyset page. One extra item is fetched to find out whether
+     * another page exists, so the last page never hands out a token.
+     * Without {@code after} and {@code limit} the listing is not paged, as
+     * before paging existed: every item comes back and there is no token.
+     * Callers that can write a Flux use {@link #findAll(ItemQuery)} for
+     * that case instead of collecting the whole catalog.
+     */
+    public Mono<ItemPage> findPage(String after, Integer limit) {
+
+        return findPage(new ItemQuery(), after, limit);
+    }
+
+    /**
+     * Keyset page of a filtered, sorted and projected listing. For the plain
+     * listing the token is the last id. Any other listing's token also
+     * carries its sort field, direction and a hash of its filter (and the
+     * last sort value, unless sorted by id); it is rejected with 400 when
+     * used with a different listing.
+     */
+    public Mono<ItemPage> findPage(ItemQuery itemQuery, String after, Integer limit) {
+
+        if (unpaged(after, limit)) {
+            return findAll(itemQuery)
+                    .collectList()
+                    .map(items -> new ItemPage(items, null));
+        }
+        int pageSize = pageSize(limit);
+        boolean byId = "id".equals(itemQuery.getSort());
+        Document afterKey = after == null ? null : decodeKey(decodeToken(after), itemQuery);
+
+        return itemReactiveRepository.findPage(itemQuery,
+                afterKey == null ? null : afterKey.get("v"),
+                afterKey == null ? null : afterKey.getString("id"),
+                pageSize + 1)
+                .collectList()
+                .map(items -> {
+                    if (items.size() <= pageSize) {
+                        return new ItemPage(items, null);
+                    }
+                    List<Item> page = items.subList(0, pageSize);
+                    Item last = page.get(pageSize - 1);
+                    Document listing = listingOf(itemQuery);
+                    if (listing == null) {
+                        return new ItemPage(page, encodeToken(last.getId()));
+                    }
+                    if (!byId) {
+                        listing.append("v", sortValue(last, itemQuery.getSort()));
+                    }
+                    return new ItemPage(page, encodeToken(listing.append("id", last.getId()).toJson()));
+                });
+    }
+
+    /**
+     * The whole listing, as it is read.
+     */
+    public Flux<Item> findAll(ItemQuery itemQuery) {
+
+        return itemReactiveRepository.findPage(itemQuery, null, null, 0);
+    }
+
+    /**
+     * Builds and validates an {@link ItemQuery} from request parameters.
+     * {@code sort} is a field optionally followed by ",asc" or ",desc";
+     * {@code fields} a comma separated list.
+     */
+    public static ItemQuery itemQuery(Double minPrice, Double maxPrice, String descriptionPrefix, String sort, String fields) {
+
+        ItemQuery itemQuery = new ItemQuery();
+        itemQuery.setMinPrice(minPrice);
+        itemQuery.setMaxPrice(maxPrice);
+        itemQuery.setDescriptionPrefix(descriptionPrefix == null || descriptionPrefix.isEmpty() ? null : descriptionPrefix);
+
+        if (sort != null && !sort.isEmpty()) {
+            String[] sortParts = sort.split(",");
+            itemQuery.setSort(checkField(sortParts[0].trim(), "sort"));
+            if (sortParts.length > 1) {
+                itemQuery.setDirection(Sort.Direction.fromOptionalString(sortParts[1].trim())
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "sort direction must be asc or desc")));
+            }
+        }
+        if (fields != null && !fields.isEmpty()) {
+            itemQuery.setFields(Arrays.stream(fields.split(","))
+                    .map(field -> checkField(field.trim(), "fields"))
+                    .collect(Collectors.toList()));
+        }
+        return itemQuery;
+    }
+
+    private static String checkField(String field, String parameter) {
+
+        if (!ITEM_FIELDS.contains(field)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, parameter + " must be one of " + ITEM_FIELDS);
+        }
+        return field;
+    }
+
+    private static Object sortValue(Item item, String sort) {
+
+        return "price".equals(sort) ? item.getPrice() : item.getDescription();
+    }
+
+    /**
+     * What a token is only valid for: sort field, direction and a hash of
+     * the filter. Null for the plain listing, whose token is just an id.
+     */
+    private static Document listingOf(ItemQuery itemQuery) {
+
+        boolean filtered = itemQuery.getMinPrice() != null || itemQuery.getMaxPrice() != null
+                || itemQuery.getDescriptionPrefix() != null;
+        if (!filtered && "id".equals(itemQuery.getSort()) && itemQuery.getDirection() == Sort.Direction.ASC) {
+            return null;
+        }
+        int filter = Objects.hash(itemQuery.getMinPrice(), itemQuery.getMaxPrice(), itemQuery.getDescriptionPrefix());
+        return new Document("sort", itemQuery.getSort())
+                .append("dir", itemQuery.getDirection().name())
+                .append("filter", Integer.toHexString(filter));
+    }
+
+    private static Document decodeKey(String token, ItemQuery itemQuery) {
+
+        Document listing = listingOf(itemQuery);
+        Document key = parseKey(token);
+        if (listing == null) {
+            if (key != null) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Continuation token does not match the listing");
+            }
+            return new Document("id", token);
+        }
+        if (key == null || key.getString("id") == null
+                || !listing.entrySet().stream().allMatch(entry -> entry.getValue().equals(key.get(entry.getKey())))) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Continuation token does not match the listing");
+        }
+        return key;
+    }
+
+    /**
+     * The token as a key of a sorted or filtered listing, null when it is
+     * a plain id.
+     */
+    private static Document parseKey(String token) {
+
+        if (!token.startsWith("{")) {
+            return null;
+        }
+        try {
+            Document key = Document.parse(token);
+            return key.containsKey("sort") ? key : null;
+        } catch (RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads the same page as {@link #findPage(String, Integer)} without
+     * decoding items: raw documents are rendered straight into buffers from
+     * {@code bufferFactory} as they are read. The token goes out in a header,
+     * ahead of the body, so the page's last id is looked up on the _id index
+     * first and the page is then read up to it.
+     */
+    public Mono<RawItemPage> findRawPage(String after, Integer limit, DataBufferFactory bufferFactory) {
+
+        if (unpaged(after, limit)) {
+            return Mono.just(new RawItemPage(
+                    rawItemJsonWriter.writeArray(itemReactiveRepository.findRawPageAfter(null, 0), bufferFactory), null));
+        }
+        int pageSize = pageSize(limit);
+        String afterId = after == null ? null : decodeKey(decodeToken(after), new ItemQuery()).getString("id");
+
+        return itemReactiveRepository.findRawPageEnd(afterId, pageSize)
+                .collectList()
+                .map(end -> {
+                    if (end.isEmpty()) {
+                        return new RawItemPage(rawItemJsonWriter.writeArray(
+                                itemReactiveRepository.findRawPageAfter(afterId, pageSize), bufferFactory), null);
+                    }
+                    BsonValue lastId = end.get(0);
+                    return new RawItemPage(
+                            rawItemJsonWriter.writeArray(itemReactiveRepository.findRawPageThrough(afterId, lastId), bufferFactory),
+                            end.size() > 1 ? encodeToken(RawItemJsonWriter.idOf(lastId)) : null);
+                });
+    }
+
+    /**
+     * Whether a listing request asks for no page at all: neither
+     * {@code after} nor {@code limit} is given.
+     */
+    public static boolean unpaged(String after, Integer limit) {
+
+        return after == null && limit == null;
+    }
+
+    private int pageSize(Integer limit) {
+
+        if (limit == null) {
+            return defaultLimit;
+        }
+        if (limit <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be greater than 0");
+        }
+        return Math.min(limit, maxLimit);
+    }
+
+    public static String encodeToken(String id) {
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(id.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static String decodeToken(String token) {
+
+        try {
+            return new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid continuation token");
+        }
+    }
+
+}
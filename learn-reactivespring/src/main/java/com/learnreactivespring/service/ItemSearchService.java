@@ -0,0 +1,84 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import com.learnreactivespring.search.ItemSearchTerms;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+
+import java.util.Comparator;
+import java.util.List;
+
+@Service
+public class ItemSearchService {
+
+    @Autowired
+    ItemReactiveRepository itemReactiveRepository;
+
+    @Value("${item.search.default-limit:20}")
+    int defaultLimit;
+
+    @Value("${item.search.max-limit:100}")
+    int maxLimit;
+
+    @Value("${item.search.max-candidates:1000}")
+    int maxCandidates;
+
+    /**
+     * Case-insensitive search: every word of {@code q} has to be the start of
+     * a word of the description, so "sam t" finds "Samsung TV". Candidates
+     * come from the searchTerms index; at most {@code max-candidates} of them
+     * are ranked and the best {@code limit} returned.
+     * <p>
+     * Ranking happens here, not in Mongo, so the cap is applied before it:
+     * when more than {@code max-candidates} items match, the ones ranked are
+     * simply the first that many the index scan returns, and a better match
+     * past them is not found. Queries that broad (a single letter, say) get
+     * a reasonable sample rather than the best results; more words narrow
+     * the candidates below the cap.
+     */
+    public Flux<Item> search(String q, Integer limit) {
+
+        List<String> prefixes = ItemSearchTerms.of(q);
+        if (prefixes.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "q must contain a letter or digit");
+        }
+        int resultSize = resultSize(limit);
+        String query = String.join(" ", prefixes);
+
+        return itemReactiveRepository.findByTermPrefixes(prefixes, maxCandidates)
+                .sort(Comparator.comparingInt((Item item) -> score(item, query, prefixes)).reversed()
+                        .thenComparingInt(item -> item.getDescription().length()))
+                .take(resultSize);
+    }
+
+    /**
+     * Descriptions starting with the whole query rank first, then items by
+     * the number of query words that are complete words of the description.
+     */
+    static int score(Item item, String query, List<String> prefixes) {
+
+        List<String> terms = ItemSearchTerms.of(item.getDescription());
+        int score = String.join(" ", terms).startsWith(query) ? 100 : 0;
+        for (String prefix : prefixes) {
+            score += terms.contains(prefix) ? 10 : 1;
+        }
+        return score;
+    }
+
+    private int resultSize(Integer limit) {
+
+        if (limit == null) {
+            return defaultLimit;
+        }
+        if (limit <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be greater than 0");
+        }
+        return Math.min(limit, maxLimit);
+    }
+
+}
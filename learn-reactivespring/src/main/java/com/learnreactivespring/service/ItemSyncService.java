@@ -0,0 +1,207 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.document.ItemTombstone;
+import com.learnreactivespring.domain.ItemSyncChange;
+import com.learnreactivespring.domain.ItemSyncPage;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import com.learnreactivespring.sync.ItemSequence;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.learnreactivespring.service.ItemPageService.decodeToken;
+import static com.learnreactivespring.service.ItemPageService.encodeToken;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Delta sync for clients keeping their own copy of the catalog. Without a
+ * token the catalog is returned as a snapshot, paged by id; the snapshot
+ * remembers the sequence number it started at, and once it is done the
+ * client is handed a token for every change after that number. Changes
+ * (items and tombstones) are read from the {@code lastModified} indexes in
+ * sequence order, so a page never costs more than its size.
+ * <p>
+ * Items stored before sequence numbers existed carry none; they only ever
+ * show up in snapshots, which is all a client needs. A token older than the
+ * tombstone retention may have missed deletes and is answered with 410 Gone,
+ * after which the client starts over with a snapshot.
+ */
+@Service
+public class ItemSyncService {
+
+    @Autowired
+    ItemReactiveRepository itemReactiveRepository;
+
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
+    @Autowired
+    ItemSequence itemSequence;
+
+    @Value("${item.sync.default-limit:1000}")
+    int defaultLimit;
+
+    @Value("${item.sync.max-limit:5000}")
+    int maxLimit;
+
+    @Value("${item.sync.tombstone-retention:7d}")
+    Duration tombstoneRetention;
+
+    public Mono<ItemSyncPage> sync(String since, Integer limit) {
+
+        int pageSize = pageSize(limit);
+        if (since == null) {
+            long startedAt = System.currentTimeMillis();
+            return itemSequence.stable()
+                    .flatMap(snapshotAt -> snapshotPage(snapshotAt, null, startedAt, pageSize));
+        }
+
+        Document token = parseToken(since);
+        long issuedAt = token.get("at", Number.class).longValue();
+        if (token.containsKey("snapshot")) {
+            return snapshotPage(token.get("snapshot", Number.class).longValue(), token.getString("after"), issuedAt, pageSize);
+        }
+        if (System.currentTimeMillis() - issuedAt > tombstoneRetention.toMillis()) {
+            return Mono.error(new ResponseStatusException(HttpStatus.GONE,
+                    "Sync token is older than the tombstone retention, start over without a token"));
+        }
+        long after = token.get("seq", Number.class).longValue();
+        return itemSequence.stable()
+                .flatMap(stable -> changesPage(after, stable, issuedAt, pageSize));
+    }
+
+    /**
+     * Deletes the item and records the delete for delta sync, under one
+     * sequence number. The tombstone is only written when an item was
+     * actually removed; emits whether one was.
+     */
+    public Mono<Boolean> delete(String id) {
+
+        return itemSequence.withSequence(1, lastModified ->
+                mongoOperations.remove(query(where("id").is(id)), Item.class)
+                        .flatMap(result -> result.getDeletedCount() == 0
+                                ? Mono.just(false)
+                                : mongoOperations.upsert(query(where("id").is(id)),
+                                        Update.update(ItemSequence.FIELD, lastModified).set("deletedAt", new Date()),
+                                        ItemTombstone.class)
+                                        .thenReturn(true)));
+    }
+
+    private Mono<ItemSyncPage> snapshotPage(long snapshotAt, String afterId, long startedAt, int pageSize) {
+
+        return itemReactiveRepository.findPageAfter(afterId, pageSize + 1)
+                .collectList()
+                .map(items -> {
+                    if (items.size() <= pageSize) {
+                        return new ItemSyncPage(changed(items), changesToken(snapshotAt, startedAt), false);
+                    }
+                    List<Item> page = items.subList(0, pageSize);
+                    Document token = new Document("snapshot", snapshotAt)
+                            .append("after", page.get(pageSize - 1).getId())
+                            .append("at", startedAt);
+                    return new ItemSyncPage(changed(page), encodeToken(token.toJson()), true);
+                });
+    }
+
+    /**
+     * Items and tombstones numbered in (after, stable], merged in sequence
+     * order. The token only moves to the end of the range once the client
+     * has seen all of it, and so does its time, which is what the tombstone
+     * retention is checked against.
+     */
+    private Mono<ItemSyncPage> changesPage(long after, long stable, long caughtUpAt, int pageSize) {
+
+        if (stable <= after) {
+            return Mono.just(new ItemSyncPage(new ArrayList<>(), changesToken(after, System.currentTimeMillis()), false));
+        }
+
+        Mono<List<Tuple2<Long, ItemSyncChange>>> items = mongoOperations.find(sequenceRange(after, stable, pageSize + 1),
+                Document.class, mongoOperations.getCollectionName(Item.class))
+                .map(document -> Tuples.of(document.get(ItemSequence.FIELD, Number.class).longValue(),
+                        ItemSyncChange.changed(mongoOperations.getConverter().read(Item.class, document))))
+                .collectList();
+        Mono<List<Tuple2<Long, ItemSyncChange>>> tombstones = mongoOperations.find(sequenceRange(after, stable, pageSize + 1), ItemTombstone.class)
+                .map(tombstone -> Tuples.of(tombstone.getLastModified(), ItemSyncChange.deleted(tombstone.getId())))
+                .collectList();
+
+        return Mono.zip(items, tombstones)
+                .map(found -> {
+                    List<Tuple2<Long, ItemSyncChange>> changes = new ArrayList<>(found.getT1());
+                    changes.addAll(found.getT2());
+                    changes.sort(Comparator.comparing(Tuple2::getT1));
+
+                    if (changes.size() <= pageSize) {
+                        return new ItemSyncPage(values(changes), changesToken(stable, System.currentTimeMillis()), false);
+                    }
+                    List<Tuple2<Long, ItemSyncChange>> page = changes.subList(0, pageSize);
+                    return new ItemSyncPage(values(page), changesToken(page.get(pageSize - 1).getT1(), caughtUpAt), true);
+                });
+    }
+
+    private static Query sequenceRange(long after, long upTo, int limit) {
+
+        return query(where(ItemSequence.FIELD).gt(after).lte(upTo))
+                .with(Sort.by(Sort.Direction.ASC, ItemSequence.FIELD))
+                .limit(limit);
+    }
+
+    private static List<ItemSyncChange> changed(List<Item> items) {
+
+        return items.stream().map(ItemSyncChange::changed).collect(Collectors.toList());
+    }
+
+    private static List<ItemSyncChange> values(List<Tuple2<Long, ItemSyncChange>> changes) {
+
+        return changes.stream().map(Tuple2::getT2).collect(Collectors.toList());
+    }
+
+    private static String changesToken(long lastModified, long at) {
+
+        return encodeToken(new Document("seq", lastModified).append("at", at).toJson());
+    }
+
+    private static Document parseToken(String since) {
+
+        try {
+            Document token = Document.parse(decodeToken(since));
+            if (!(token.get("at") instanceof Number)
+                    || !(token.get("seq") instanceof Number || token.get("snapshot") instanceof Number)) {
+                throw new IllegalArgumentException("incomplete token");
+            }
+            return token;
+        } catch (RuntimeException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid sync token");
+        }
+    }
+
+    private int pageSize(Integer limit) {
+
+        if (limit == null) {
+            return defaultLimit;
+        }
+        if (limit <= 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "limit must be greater than 0");
+        }
+        return Math.min(limit, maxLimit);
+    }
+
+}
@@ -0,0 +1,307 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.ConnectableFlux;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Tails the capped collection once per node and multicasts it to every stream
+ * subscriber. The last {@code item.stream.replay-size} items are replayed to
+ * late subscribers, matching what a fresh tailable cursor would return.
+ * Each subscriber gets its own bounded buffer so a slow client only ever
+ * affects itself, and is emitted to at no more than its throttled rate. The
+ * cursor is read in batches of {@code item.stream.tail-prefetch} rather than
+ * with unbounded demand.
+ * <p>
+ * A tailable cursor dies right away when nothing matches it, so the cursor
+ * is only opened once there is an item to read (after the last item seen).
+ * Waiting for the first item is a cheap poll and is not counted as a
+ * restart. When an open cursor dies (the tail fell out of the capped
+ * window) it is reopened after the last item seen, and the restart is
+ * counted in {@code item.stream.cursor.restarts}. Open subscriptions and
+ * their buffer backlog are exposed as gauges.
+ */
+@Component
+@Slf4j
+public class ItemCappedStreamHub implements MeterBinder {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_LATEST,
+        DISCONNECT
+    }
+
+    @Autowired
+    ItemReactiveCappedRepository itemReactiveCappedRepository;
+
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
+    @Value("${item.stream.replay-size:20}")
+    int replaySize;
+
+    @Value("${item.stream.subscriber-buffer-size:256}")
+    int subscriberBufferSize;
+
+    @Value("${item.stream.overflow-policy:DROP_OLDEST}")
+    OverflowPolicy overflowPolicy;
+
+    @Value("${item.stream.grace-period:5s}")
+    Duration gracePeriod;
+
+    @Value("${item.stream.heartbeat-interval:15s}")
+    Duration heartbeatInterval;
+
+    @Value("${item.stream.reconnect-delay:3s}")
+    Duration reconnectDelay;
+
+    @Value("${item.stream.cursor-restart-delay:1s}")
+    Duration cursorRestartDelay;
+
+    @Value("${item.stream.tail-prefetch:64}")
+    int tailPrefetch;
+
+    @Autowired
+    StreamThrottle streamThrottle;
+
+    private final AtomicLong cursorRestarts = new AtomicLong();
+
+    private final AtomicLong droppedItems = new AtomicLong();
+
+    private final Set<AtomicLong> subscriberBacklogs = ConcurrentHashMap.newKeySet();
+
+    private Flux<ItemCapped> shared;
+
+    @PostConstruct
+    public void init() {
+
+        ConnectableFlux<ItemCapped> tail = Flux.defer(this::tailWithRestarts)
+                .doOnSubscribe(subscription -> log.info("Opening shared tailable cursor on the capped collection"))
+                .doOnCancel(() -> log.info("Closing shared tailable cursor, no subscribers left"))
+                .replay(replaySize);
+
+        shared = gracePeriod.isZero() ? tail.refCount(1) : tail.refCount(1, gracePeriod);
+    }
+
+    private Flux<ItemCapped> tailWithRestarts() {
+
+        AtomicReference<String> lastSeen = new AtomicReference<>();
+
+        return Flux.defer(() -> openCursor(lastSeen.get()))
+                .limitRate(tailPrefetch)
+                .doOnNext(item -> lastSeen.set(item.getId()))
+                .repeatWhen(completions -> completions
+                        .doOnNext(count -> cursorRestarted("completed"))
+                        .delayElements(cursorRestartDelay))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, cursorRestartDelay)
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .transientErrors(true)
+                        .doBeforeRetry(signal -> cursorRestarted(signal.failure().getMessage())));
+    }
+
+    private Flux<ItemCapped> openCursor(String lastSeenId) {
+
+        if (lastSeenId == null || !ObjectId.isValid(lastSeenId)) {
+            return awaitItems(new Query())
+                    .thenMany(itemReactiveCappedRepository.findItemsBy());
+        }
+        Query afterLastSeen = query(where("id").gt(new ObjectId(lastSeenId)));
+        return awaitItems(afterLastSeen)
+                .thenMany(mongoOperations.tail(afterLastSeen, ItemCapped.class));
+    }
+
+    /**
+     * Completes once an item matches {@code query}, checking every
+     * {@code cursor-restart-delay}.
+     */
+    private Mono<Boolean> awaitItems(Query query) {
+
+        return Mono.defer(() -> mongoOperations.exists(query, ItemCapped.class))
+                .filter(found -> found)
+                .repeatWhenEmpty(attempts -> attempts.delayElements(cursorRestartDelay));
+    }
+
+    private void cursorRestarted(String reason) {
+
+        long restarts = cursorRestarts.incrementAndGet();
+        log.debug("Restarting tailable cursor ({}), {} restarts so far", reason, restarts);
+    }
+
+    public long getCursorRestarts() {
+        return cursorRestarts.get();
+    }
+
+    /**
+     * @param rate items per second requested by the client, null for the
+     *             default; bounded by {@link StreamThrottle}
+     */
+    public Flux<ItemCapped> subscribe(Double rate) {
+
+        return streamThrottle.throttle(withOverflowPolicy(shared), rate);
+    }
+
+    /**
+     * Server-sent event view of the stream. Every event carries the item's
+     * ObjectId as its id, so a reconnecting client that sends Last-Event-ID
+     * resumes strictly after the last item it saw: what it missed is read
+     * from the capped collection and then the shared cursor takes over. If
+     * that item has already left the capped window, a {@code reset} event
+     * comes first, telling the client that items were lost, followed by
+     * everything still retained. The reset carries the last id the client saw
+     * as its data, since EventSource does not dispatch an event without one. Heartbeat comments keep idle connections
+     * open through proxies, and the reconnect delay handed to the client is
+     * jittered so a deploy does not cause a reconnect storm.
+     */
+    public Flux<ServerSentEvent<Object>> subscribeEvents(String lastEventId, Double rate) {
+
+        Flux<ItemCapped> items = shared;
+        Flux<ServerSentEvent<Object>> reset = Flux.empty();
+        if (lastEventId != null && ObjectId.isValid(lastEventId)) {
+            ObjectId lastSeen = new ObjectId(lastEventId);
+            items = resumeAfter(lastSeen);
+            reset = mongoOperations.exists(query(where("id").is(lastSeen)), ItemCapped.class)
+                    .filter(retained -> !retained)
+                    .map(lost -> ServerSentEvent.builder()
+                            .event("reset")
+                            .data(Collections.singletonMap("lastEventId", lastEventId))
+                            .comment("items after " + lastEventId + " are no longer retained")
+                            .build())
+                    .flux();
+        }
+
+        MonoProcessor<Void> done = MonoProcessor.create();
+        Flux<ServerSentEvent<Object>> events = streamThrottle.throttle(withOverflowPolicy(items), rate)
+                .map(item -> ServerSentEvent.<Object>builder(item).id(item.getId()).build())
+                .doFinally(signal -> done.onComplete());
+
+        Flux<ServerSentEvent<Object>> heartbeats = Flux.interval(heartbeatInterval)
+                .map(tick -> ServerSentEvent.builder()
+                        .comment("heartbeat cursor-restarts=" + cursorRestarts.get())
+                        .build())
+                .takeUntilOther(done);
+
+        long jitter = ThreadLocalRandom.current().nextLong(reconnectDelay.toMillis() + 1);
+        ServerSentEvent<Object> connected = ServerSentEvent.builder()
+                .comment("connected")
+                .retry(reconnectDelay.plusMillis(jitter))
+                .build();
+
+        return Flux.just(connected)
+                .concatWith(reset)
+                .concatWith(Flux.merge(events, heartbeats));
+    }
+
+    /**
+     * Items after {@code lastSeen}: first those already in the capped
+     * collection, then the shared cursor. Both are subscribed to up front
+     * and the shared items wait until the query is done, so nothing
+     * inserted in between is missed; items both of them return are only
+     * passed on once.
+     */
+    private Flux<ItemCapped> resumeAfter(ObjectId lastSeen) {
+
+        return Flux.defer(() -> {
+            AtomicReference<ObjectId> lastSent = new AtomicReference<>(lastSeen);
+            Query missed = query(where("id").gt(lastSeen)).with(Sort.by(Sort.Direction.ASC, "id"));
+
+            return Flux.mergeSequential(mongoOperations.find(missed, ItemCapped.class), shared)
+                    .filter(item -> new ObjectId(item.getId()).compareTo(lastSent.get()) > 0)
+                    .doOnNext(item -> lastSent.set(new ObjectId(item.getId())));
+        });
+    }
+
+    /**
+     * Buffers per subscriber and tracks how many items are waiting in that
+     * buffer, for the subscriber and backlog gauges.
+     */
+    private Flux<ItemCapped> withOverflowPolicy(Flux<ItemCapped> items) {
+
+        return Flux.defer(() -> {
+            AtomicLong backlog = new AtomicLong();
+            subscriberBacklogs.add(backlog);
+
+            return buffered(items.doOnNext(item -> backlog.incrementAndGet()), backlog)
+                    .doOnNext(item -> backlog.decrementAndGet())
+                    .doFinally(signal -> subscriberBacklogs.remove(backlog));
+        });
+    }
+
+    private Flux<ItemCapped> buffered(Flux<ItemCapped> items, AtomicLong backlog) {
+
+        switch (overflowPolicy) {
+            case DROP_LATEST:
+                return items.onBackpressureBuffer(subscriberBufferSize,
+                        item -> dropped(item, backlog), BufferOverflowStrategy.DROP_LATEST);
+            case DISCONNECT:
+                return items.onBackpressureBuffer(subscriberBufferSize, item -> dropped(item, backlog))
+                        .onErrorResume(Exceptions::isOverflow, ex -> {
+                            log.warn("Disconnecting slow stream subscriber, {} items buffered", subscriberBufferSize);
+                            return Flux.empty();
+                        });
+            default:
+                return items.onBackpressureBuffer(subscriberBufferSize,
+                        item -> dropped(item, backlog), BufferOverflowStrategy.DROP_OLDEST);
+        }
+    }
+
+    private void dropped(ItemCapped itemCapped, AtomicLong backlog) {
+
+        backlog.decrementAndGet();
+        droppedItems.incrementAndGet();
+        log.debug("Dropped {} for a slow stream subscriber", itemCapped.getId());
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+
+        FunctionCounter.builder("item.stream.cursor.restarts", cursorRestarts, AtomicLong::get)
+                .description("Times the shared tailable cursor on the capped collection had to be reopened")
+                .register(registry);
+        FunctionCounter.builder("item.stream.dropped", droppedItems, AtomicLong::get)
+                .description("Items dropped from slow stream subscribers' buffers")
+                .register(registry);
+        Gauge.builder("item.stream.subscribers", subscriberBacklogs, Set::size)
+                .description("Open stream and event-stream subscriptions")
+                .register(registry);
+        Gauge.builder("item.stream.subscriber.backlog.max", subscriberBacklogs,
+                backlogs -> backlogs.stream().mapToLong(AtomicLong::get).max().orElse(0))
+                .description("Items waiting in the fullest subscriber buffer")
+                .register(registry);
+        Gauge.builder("item.stream.subscriber.backlog.total", subscriberBacklogs,
+                backlogs -> backlogs.stream().mapToLong(AtomicLong::get).sum())
+                .description("Items waiting in all subscriber buffers")
+                .register(registry);
+    }
+
+}
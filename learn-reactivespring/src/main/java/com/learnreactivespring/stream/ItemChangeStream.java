@@ -0,0 +1,400 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.domain.ItemChange;
+import com.mongodb.MongoCommandException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.json.JsonParseException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.MonoProcessor;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+/**
+ * One Mongo change stream on the item collection per node, shared by every
+ * listener: the item cache and every client of the change feed. Change
+ * streams need a replica set, so this is switched off unless
+ * {@code item.changes.enabled} is set.
+ * <p>
+ * Each event is numbered as it arrives and the last
+ * {@code item.changes.history-size} are kept, so a client resuming with a
+ * recent token is served from memory. An older token gets its own cursor
+ * resumed from that token, which is reopened after its last event if it
+ * fails ({@code item.changes.cursor-retries} times) and closed as soon as it
+ * reaches a change the shared cursor has numbered; the client is then served
+ * from the shared cursor. If Mongo no longer has the token the client is sent
+ * an invalidate event and should reload. When the shared cursor itself fails
+ * it is reopened after the last event it delivered.
+ * <p>
+ * A slow client is disconnected with an error once
+ * {@code item.changes.subscriber-buffer-size} events are waiting for it rather
+ * than silently skipping changes; it can resume from the last token it
+ * received.
+ */
+@Component
+@Slf4j
+public class ItemChangeStream implements MeterBinder {
+
+    public static final List<String> DOCUMENT_OPERATIONS = Arrays.asList("insert", "update", "replace", "delete");
+
+    private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+    private static final int CHANGE_STREAM_FATAL_ERROR = 280;
+
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
+    @Value("${item.changes.enabled:false}")
+    boolean enabled;
+
+    @Value("${item.changes.history-size:1000}")
+    int historySize;
+
+    @Value("${item.changes.subscriber-buffer-size:256}")
+    int subscriberBufferSize;
+
+    @Value("${item.changes.heartbeat-interval:15s}")
+    Duration heartbeatInterval;
+
+    @Value("${item.changes.min-backoff:1s}")
+    Duration minBackoff;
+
+    @Value("${item.changes.max-backoff:30s}")
+    Duration maxBackoff;
+
+    @Value("${item.changes.cursor-retries:3}")
+    int cursorRetries;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicReference<BsonValue> lastResumeToken = new AtomicReference<>();
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    private final AtomicLong resumedFromHistory = new AtomicLong();
+
+    private final AtomicLong resumedFromCursor = new AtomicLong();
+
+    private final AtomicLong disconnected = new AtomicLong();
+
+    private Map<String, Long> history;
+
+    private Flux<Tuple2<Long, ItemChange>> changes;
+
+    @PostConstruct
+    public void init() {
+
+        history = Collections.synchronizedMap(new LinkedHashMap<String, Long>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > historySize;
+            }
+        });
+
+        changes = Flux.defer(() -> openCursor(lastResumeToken.get()))
+                .doOnNext(event -> lastResumeToken.set(event.getResumeToken()))
+                .doOnError(this::sharedCursorFailed)
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, minBackoff)
+                        .maxBackoff(maxBackoff)
+                        .transientErrors(true))
+                .map(event -> {
+                    ItemChange change = toChange(event);
+                    long number = sequence.incrementAndGet();
+                    if (change.getResumeToken() != null) {
+                        history.put(change.getResumeToken(), number);
+                    }
+                    return Tuples.of(number, change);
+                })
+                .doOnSubscribe(subscription -> {
+                    log.info("Opening shared change stream on the item collection");
+                    history.clear();
+                })
+                .doOnCancel(() -> {
+                    log.info("Closing shared change stream, no listeners left");
+                    lastResumeToken.set(null);
+                })
+                .replay(historySize)
+                .refCount();
+    }
+
+    private Flux<ChangeStreamEvent<Item>> openCursor(BsonValue resumeAfter) {
+
+        ChangeStreamOptions.ChangeStreamOptionsBuilder options = ChangeStreamOptions.builder()
+                .returnFullDocumentOnUpdate();
+        if (resumeAfter != null) {
+            options.resumeAfter(resumeAfter);
+        }
+        return mongoOperations.changeStream(mongoOperations.getCollectionName(Item.class), options.build(), Item.class);
+    }
+
+    private void sharedCursorFailed(Throwable ex) {
+
+        if (isHistoryLost(ex)) {
+            log.warn("Item change stream can no longer resume, reopening from now : {}", ex.getMessage());
+            lastResumeToken.set(null);
+        } else {
+            log.warn("Item change stream failed, reconnecting : {}", ex.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Changes from now on, unbuffered, for in-process listeners.
+     */
+    public Flux<ItemChange> changes() {
+
+        if (!enabled) {
+            return Flux.empty();
+        }
+        return Flux.defer(() -> {
+            long start = sequence.get();
+            return changes.filter(change -> change.getT1() > start).map(Tuple2::getT2);
+        });
+    }
+
+    /**
+     * Change feed for one client.
+     *
+     * @param resumeAfter    resume token of the last event the client saw, null
+     *                       to start from now
+     * @param operationTypes document operations to send, empty for all;
+     *                       collection level events are always sent
+     */
+    public Flux<ItemChange> subscribe(String resumeAfter, Set<String> operationTypes) {
+
+        if (!enabled) {
+            return Flux.error(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "The item change feed is not enabled"));
+        }
+        BsonValue resumeToken = resumeAfter == null ? null : parseResumeToken(resumeAfter);
+
+        return Flux.defer(() -> {
+            subscribers.incrementAndGet();
+            // the buffer only signals its overflow once the subscriber drained
+            // it, which a stalled one never does, so it is failed from the side
+            MonoProcessor<Void> fellBehind = MonoProcessor.create();
+            return source(resumeAfter, resumeToken)
+                    .filter(change -> operationTypes.isEmpty() || change.getId() == null
+                            || operationTypes.contains(change.getOperationType()))
+                    .onBackpressureBuffer(subscriberBufferSize, change -> {
+                        disconnected.incrementAndGet();
+                        log.warn("Disconnecting slow change feed subscriber, {} changes buffered", subscriberBufferSize);
+                        fellBehind.onError(new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE,
+                                "Change feed subscriber fell behind, resume from the last token received"));
+                    })
+                    .takeUntilOther(fellBehind)
+                    .doFinally(signal -> subscribers.decrementAndGet());
+        });
+    }
+
+    private Flux<ItemChange> source(String resumeAfter, BsonValue resumeToken) {
+
+        if (resumeAfter == null) {
+            long start = sequence.get();
+            return changes.filter(change -> change.getT1() > start).map(Tuple2::getT2);
+        }
+
+        Long resumeFrom = history.get(resumeAfter);
+        if (resumeFrom != null) {
+            resumedFromHistory.incrementAndGet();
+            return changes.filter(change -> change.getT1() > resumeFrom).map(Tuple2::getT2);
+        }
+
+        resumedFromCursor.incrementAndGet();
+        log.debug("Resume token is not in the last {} changes, opening a dedicated change stream", historySize);
+        return dedicatedCursor(resumeToken);
+    }
+
+    /**
+     * Own cursor for a client that is further behind than the history. It
+     * ends with the first change the shared cursor has numbered, and the
+     * client carries on with the shared changes after it.
+     */
+    private Flux<ItemChange> dedicatedCursor(BsonValue resumeToken) {
+
+        AtomicReference<BsonValue> resumeAfter = new AtomicReference<>(resumeToken);
+        AtomicReference<Long> joinedAt = new AtomicReference<>();
+
+        Flux<ItemChange> catchUp = Flux.defer(() -> openCursor(resumeAfter.get()))
+                .doOnNext(event -> resumeAfter.set(event.getResumeToken()))
+                .map(ItemChangeStream::toChange)
+                .takeUntil(change -> {
+                    Long number = change.getResumeToken() == null ? null : history.get(change.getResumeToken());
+                    joinedAt.set(number);
+                    return number != null;
+                })
+                .retryWhen(Retry.backoff(cursorRetries, minBackoff)
+                        .maxBackoff(maxBackoff)
+                        .transientErrors(true)
+                        .filter(ex -> !isHistoryLost(ex)))
+                .onErrorResume(ItemChangeStream::isHistoryLost, ex -> {
+                    log.info("Could not resume the item change stream, asking the client to reload : {}", ex.getMessage());
+                    return Flux.just(ItemChange.invalidate());
+                });
+
+        return catchUp.concatWith(Flux.defer(() -> {
+            Long from = joinedAt.get();
+            return from == null
+                    ? Flux.empty()
+                    : changes.filter(change -> change.getT1() > from).map(Tuple2::getT2);
+        }));
+    }
+
+    /**
+     * Server-sent event view of the feed. Each event is named after its
+     * operation type and carries its resume token as id, so a browser
+     * reconnecting with Last-Event-ID resumes right after it. A "connected"
+     * comment is sent once the feed has been subscribed, so a client can
+     * read the current state after it without missing changes in between.
+     * Heartbeat comments keep idle connections open through proxies.
+     */
+    public Flux<ServerSentEvent<ItemChange>> subscribeEvents(String lastEventId, Set<String> operationTypes) {
+
+        MonoProcessor<Void> done = MonoProcessor.create();
+        Flux<ServerSentEvent<ItemChange>> events = subscribe(lastEventId, operationTypes)
+                .map(change -> ServerSentEvent.builder(change)
+                        .id(change.getResumeToken())
+                        .event(change.getOperationType())
+                        .build())
+                .doFinally(signal -> done.onComplete());
+
+        Flux<ServerSentEvent<ItemChange>> heartbeats = Flux.interval(heartbeatInterval)
+                .map(tick -> ServerSentEvent.<ItemChange>builder().comment("heartbeat").build())
+                .takeUntilOther(done);
+
+        // merge subscribes to the events before the comment is sent
+        ServerSentEvent<ItemChange> connected = ServerSentEvent.<ItemChange>builder().comment("connected").build();
+        return Flux.merge(events, Flux.just(connected).concatWith(heartbeats));
+    }
+
+    /**
+     * Parses a comma separated list of document operations; null or empty
+     * selects all of them.
+     */
+    public static Set<String> operationTypes(String operationTypes) {
+
+        if (operationTypes == null || operationTypes.isEmpty()) {
+            return Collections.emptySet();
+        }
+        Set<String> types = Arrays.stream(operationTypes.split(","))
+                .map(String::trim)
+                .collect(Collectors.toSet());
+        if (!DOCUMENT_OPERATIONS.containsAll(types)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "operationType must be some of " + DOCUMENT_OPERATIONS);
+        }
+        return types;
+    }
+
+    static ItemChange toChange(ChangeStreamEvent<Item> event) {
+
+        return new ItemChange(event.getOperationType() == null ? null : event.getOperationType().getValue(),
+                documentId(event),
+                event.getBody(),
+                resumeToken(event.getResumeToken()),
+                event.getTimestamp());
+    }
+
+    /**
+     * Resume tokens are a document whose {@code _data} is a hex string on
+     * current servers; it is sent to clients as is. Any other shape is sent
+     * as JSON.
+     */
+    static String resumeToken(BsonValue token) {
+
+        if (token == null || !token.isDocument()) {
+            return null;
+        }
+        BsonValue data = token.asDocument().get("_data");
+        return data != null && data.isString() ? data.asString().getValue() : token.asDocument().toJson();
+    }
+
+    static BsonValue parseResumeToken(String token) {
+
+        try {
+            if (token.startsWith("{")) {
+                return BsonDocument.parse(token);
+            }
+        } catch (JsonParseException ex) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed resume token");
+        }
+        if (!token.matches("[0-9A-Fa-f]+")) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed resume token");
+        }
+        return new BsonDocument("_data", new BsonString(token));
+    }
+
+    private static boolean isHistoryLost(Throwable ex) {
+
+        return ex instanceof MongoCommandException
+                && (((MongoCommandException) ex).getErrorCode() == CHANGE_STREAM_HISTORY_LOST
+                || ((MongoCommandException) ex).getErrorCode() == CHANGE_STREAM_FATAL_ERROR);
+    }
+
+    /**
+     * Reads the id of the changed document from the event's document key,
+     * or null for collection level events such as drop or invalidate.
+     */
+    public static String documentId(ChangeStreamEvent<Item> event) {
+
+        if (event.getRaw() == null || event.getRaw().getDocumentKey() == null) {
+            return null;
+        }
+        BsonValue id = event.getRaw().getDocumentKey().get("_id");
+        if (id != null && id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        return id != null && id.isString() ? id.asString().getValue() : null;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+
+        Gauge.builder("item.changes.subscribers", subscribers, AtomicInteger::get)
+                .description("Open item change feed subscriptions")
+                .register(registry);
+        FunctionCounter.builder("item.changes.resumed", resumedFromHistory, AtomicLong::get)
+                .description("Change feed subscriptions resumed from a token")
+                .tag("source", "history")
+                .register(registry);
+        FunctionCounter.builder("item.changes.resumed", resumedFromCursor, AtomicLong::get)
+                .description("Change feed subscriptions resumed from a token")
+                .tag("source", "cursor")
+                .register(registry);
+        FunctionCounter.builder("item.changes.disconnected", disconnected, AtomicLong::get)
+                .description("Slow change feed subscribers disconnected after filling their buffer")
+                .register(registry);
+    }
+
+}
@@ -0,0 +1,57 @@
+package com.learnreactivespring.stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+
+/**
+ * Per-subscriber emission throttle for long-lived streams. A client may ask
+ * for a rate (items per second) within {@code item.stream.throttle.min-rate}
+ * and {@code max-rate}; requests outside are clamped, no rate means the
+ * default. The max rate matches the top rate of {@code ItemCappedGenerator},
+ * so a client can still keep up with the generator at full load. Items are
+ * pulled one at a time, so whatever the client cannot take yet stays in the
+ * subscriber's bounded buffer upstream.
+ */
+@Component
+public class StreamThrottle {
+
+    @Value("${item.stream.throttle.default-rate:1000}")
+    double defaultRate;
+
+    @Value("${item.stream.throttle.min-rate:0.1}")
+    double minRate;
+
+    @Value("${item.stream.throttle.max-rate:50000}")
+    double maxRate;
+
+    @Value("${item.stream.throttle.burst:20}")
+    double burst;
+
+    public <T> Flux<T> throttle(Flux<T> source, Double requestedRate) {
+
+        double rate = rate(requestedRate);
+
+        return Flux.defer(() -> {
+            TokenBucket bucket = new TokenBucket(rate, Math.max(1, Math.min(burst, rate)));
+            return source.concatMap(element -> {
+                long waitNanos = bucket.reserve();
+                return waitNanos == 0
+                        ? Mono.just(element)
+                        : Mono.just(element).delayElement(Duration.ofNanos(waitNanos));
+            }, 1);
+        });
+    }
+
+    double rate(Double requestedRate) {
+
+        if (requestedRate == null || requestedRate <= 0 || requestedRate.isNaN()) {
+            return defaultRate;
+        }
+        return Math.max(minRate, Math.min(maxRate, requestedRate));
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.learnreactivespring.stream;
+
+/**
+ * Token bucket refilled at {@code rate} tokens per second up to
+ * {@code burst}. {@link #reserve()} always takes a token and returns how long
+ * the caller has to wait for it, so waiting callers are served in order
+ * without polling.
+ */
+public class TokenBucket {
+
+    private final double nanosPerToken;
+    private final double burst;
+
+    private double tokens;
+    private long refilledAt;
+
+    public TokenBucket(double rate, double burst) {
+        this.nanosPerToken = 1_000_000_000d / rate;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    public synchronized long reserve() {
+
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) / nanosPerToken);
+        refilledAt = now;
+
+        tokens--;
+        return tokens >= 0 ? 0 : (long) (-tokens * nanosPerToken);
+    }
+
+}
@@ -0,0 +1,312 @@
+package com.learnreactivespring.sync;
+
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * Hands out the {@code lastModified} numbers stamped on every item write and
+ * tombstone, from one counter document shared by all nodes. Each node takes
+ * blocks of {@code item.sync.block-size} numbers with a single {@code $inc}
+ * and hands them out locally, so a write costs no extra round trip.
+ * <p>
+ * Numbers only grow, but are reserved before the write that uses them, so a
+ * smaller number can become visible after a larger one. Every node therefore
+ * keeps a lease in the counter document with its floor: no number it is
+ * still writing, or will ever hand out, is below it. The lease is written
+ * with every block taken and every {@code item.sync.lease-refresh}, when the
+ * rest of the current block is dropped so an idle node does not hold others
+ * back. {@link #stable()} stops just below the lowest floor, this node's own
+ * taken from memory. A lease not refreshed within {@code item.sync.write-timeout}
+ * (stopped node) is ignored and removed, as is a reservation never released.
+ */
+@Component
+@Slf4j
+public class ItemSequence {
+
+    public static final String FIELD = "lastModified";
+
+    private static final String COUNTERS_COLLECTION = "counters";
+
+    private static final String COUNTER_ID = "items";
+
+    private static final String LEASES = "leases";
+
+    private static final int MAX_UPSERT_RETRIES = 3;
+
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
+    @Value("${item.sync.write-timeout:30s}")
+    Duration writeTimeout;
+
+    @Value("${item.sync.block-size:100}")
+    int blockSize;
+
+    @Value("${item.sync.lease-refresh:1s}")
+    Duration leaseRefresh;
+
+    private final String node = new ObjectId().toHexString();
+
+    /**
+     * First number of each reservation not yet released, with when it was made.
+     */
+    private final TreeMap<Long, Long> inFlight = new TreeMap<>();
+
+    /**
+     * Lowest number each block request still on its way can return, with how
+     * many requests share it.
+     */
+    private final TreeMap<Long, Integer> pendingBlocks = new TreeMap<>();
+
+    private long next = 1;
+
+    private long end;
+
+    /**
+     * A counter value seen in Mongo; every number taken later is above it.
+     */
+    private long lastKnown;
+
+    private boolean leased;
+
+    private Disposable leaseRefresher;
+
+    @PostConstruct
+    public void init() {
+
+        leaseRefresher = Flux.interval(leaseRefresh)
+                .concatMap(tick -> refreshLease()
+                        .onErrorResume(ex -> {
+                            log.warn("Could not refresh the item sequence lease : {}", ex.getMessage());
+                            return Mono.empty();
+                        }))
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void destroy() {
+
+        if (leaseRefresher != null) {
+            leaseRefresher.dispose();
+        }
+        synchronized (this) {
+            if (!leased || !inFlight.isEmpty()) {
+                return;
+            }
+        }
+        mongoOperations.updateFirst(query(where("_id").is(COUNTER_ID)), new Update().unset(LEASES + "." + node), COUNTERS_COLLECTION)
+                .block(leaseRefresh);
+    }
+
+    /**
+     * Reserves {@code count} consecutive numbers and returns the first one.
+     * Every reservation has to be {@link #release(long) released} once the
+     * write using it is done.
+     */
+    public Mono<Long> reserve(int count) {
+
+        return Mono.defer(() -> {
+            Long first = reserveFromBlock(count);
+            return first != null ? Mono.just(first) : reserveNewBlock(count);
+        });
+    }
+
+    public synchronized void release(long first) {
+        inFlight.remove(first);
+    }
+
+    /**
+     * Runs {@code write} with {@code count} reserved numbers, starting at the
+     * one passed in, and releases them when it terminates, fails or is
+     * cancelled.
+     */
+    public <T> Mono<T> withSequence(int count, Function<Long, Mono<T>> write) {
+
+        return Mono.usingWhen(reserve(count), write, first -> Mono.fromRunnable(() -> release(first)));
+    }
+
+    /**
+     * Highest number up to which every write from every node is visible:
+     * the counter, or just below the lowest floor of a live lease.
+     */
+    public Mono<Long> stable() {
+
+        return mongoOperations.findById(COUNTER_ID, Document.class, COUNTERS_COLLECTION)
+                .flatMap(counter -> {
+                    long value = value(counter);
+                    observed(value);
+                    long stable = Math.min(value, floor() - 1);
+                    Document leases = counter.get(LEASES, Document.class);
+                    if (leases == null) {
+                        return Mono.just(stable);
+                    }
+                    Date expired = new Date(System.currentTimeMillis() - writeTimeout.toMillis());
+                    Mono<Void> cleanUp = Mono.empty();
+                    for (Map.Entry<String, Object> lease : leases.entrySet()) {
+                        Document entry = (Document) lease.getValue();
+                        if (lease.getKey().equals(node)) {
+                            continue;
+                        }
+                        if (entry.getDate("at").before(expired)) {
+                            log.warn("Item sequence lease of node {} was not refreshed for more than {}, ignoring it", lease.getKey(), writeTimeout);
+                            cleanUp = cleanUp.then(removeLease(lease.getKey(), entry.getDate("at")));
+                            continue;
+                        }
+                        stable = Math.min(stable, entry.get("floor", Number.class).longValue() - 1);
+                    }
+                    return cleanUp.thenReturn(stable);
+                })
+                .defaultIfEmpty(0L);
+    }
+
+    private synchronized Long reserveFromBlock(int count) {
+
+        if (end - next + 1 < count) {
+            return null;
+        }
+        long first = next;
+        next += count;
+        inFlight.put(first, System.nanoTime());
+        return first;
+    }
+
+    /**
+     * Takes a new block with one findAndModify, which also renews this node's
+     * lease, and reserves the first {@code count} numbers of it. The rest of
+     * the current block, if any, is dropped.
+     */
+    private Mono<Long> reserveNewBlock(int count) {
+
+        int size = Math.max(blockSize, count);
+        long lowest;
+        long floor;
+        synchronized (this) {
+            lowest = lastKnown + 1;
+            pendingBlocks.merge(lowest, 1, Integer::sum);
+            floor = floor();
+            leased = true;
+        }
+        Update update = new Update().inc("value", size)
+                .set(LEASES + "." + node, lease(floor));
+
+        return mongoOperations.findAndModify(query(where("_id").is(COUNTER_ID)), update,
+                FindAndModifyOptions.options().upsert(true).returnNew(true), Document.class, COUNTERS_COLLECTION)
+                // two nodes creating the counter at once: one insert loses and is retried as an update
+                .retryWhen(Retry.max(MAX_UPSERT_RETRIES)
+                        .filter(DuplicateKeyException.class::isInstance)
+                        .onRetryExhaustedThrow((spec, signal) ->
+                                new IllegalStateException("Could not reserve item sequence numbers", signal.failure())))
+                .map(counter -> installBlock(value(counter), size, count))
+                .doFinally(signal -> blockArrived(lowest));
+    }
+
+    private synchronized long installBlock(long value, int size, int count) {
+
+        long first = value - size + 1;
+        inFlight.put(first, System.nanoTime());
+        next = first + count;
+        end = value;
+        lastKnown = Math.max(lastKnown, value);
+        return first;
+    }
+
+    private synchronized void blockArrived(long lowest) {
+        pendingBlocks.computeIfPresent(lowest, (key, requests) -> requests == 1 ? null : requests - 1);
+    }
+
+    private synchronized void observed(long value) {
+        lastKnown = Math.max(lastKnown, value);
+    }
+
+    /**
+     * Lowest number this node may still write: its oldest reservation, the
+     * rest of its block, or whatever a block request still on its way or a
+     * future one returns.
+     */
+    private synchronized long floor() {
+
+        long floor = lastKnown + 1;
+        long expired = System.nanoTime() - writeTimeout.toNanos();
+        for (Iterator<Map.Entry<Long, Long>> reservations = inFlight.entrySet().iterator(); reservations.hasNext(); ) {
+            Map.Entry<Long, Long> reservation = reservations.next();
+            if (reservation.getValue() - expired > 0) {
+                floor = Math.min(floor, reservation.getKey());
+                break;
+            }
+            log.warn("Sequence number {} was reserved more than {} ago and never released, ignoring it",
+                    reservation.getKey(), writeTimeout);
+            reservations.remove();
+        }
+        if (!pendingBlocks.isEmpty()) {
+            floor = Math.min(floor, pendingBlocks.firstKey());
+        }
+        if (next <= end) {
+            floor = Math.min(floor, next);
+        }
+        return floor;
+    }
+
+    /**
+     * Drops the rest of the current block and publishes the floor, so other
+     * nodes' stable point is held back by at most one refresh.
+     */
+    Mono<Void> refreshLease() {
+
+        long floor;
+        synchronized (this) {
+            if (!leased) {
+                return Mono.empty();
+            }
+            next = end + 1;
+            floor = floor();
+        }
+        return mongoOperations.updateFirst(query(where("_id").is(COUNTER_ID)), new Update().set(LEASES + "." + node, lease(floor)), COUNTERS_COLLECTION)
+                .then();
+    }
+
+    /**
+     * Removes a stale lease unless its node refreshed it since it was read.
+     */
+    private Mono<Void> removeLease(String staleNode, Date at) {
+
+        return mongoOperations.updateFirst(query(where("_id").is(COUNTER_ID).and(LEASES + "." + staleNode + ".at").is(at)),
+                new Update().unset(LEASES + "." + staleNode), COUNTERS_COLLECTION)
+                .then();
+    }
+
+    private static Document lease(long floor) {
+
+        return new Document("floor", floor).append("at", new Date());
+    }
+
+    private static long value(Document counter) {
+
+        Number value = counter.get("value", Number.class);
+        return value == null ? 0 : value.longValue();
+    }
+
+}
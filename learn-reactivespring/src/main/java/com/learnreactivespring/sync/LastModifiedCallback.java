@@ -0,0 +1,61 @@
+package com.learnreactivespring.sync;
+
+import com.learnreactivespring.document.Item;
+import org.bson.Document;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveAfterSaveCallback;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveBeforeSaveCallback;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+/**
+ * Stamps every Item saved with a {@code lastModified} number. Saved through
+ * {@code ItemReactiveRepository.saveSequenced} the number is reserved around
+ * the whole save and passed in the subscriber context, so it is released
+ * however the save ends. Any other save reserves one here and releases it
+ * after the save; if the save fails the reservation is only given up after
+ * the write timeout. Like the search terms, the number lives only in the
+ * stored document.
+ */
+@Component
+public class LastModifiedCallback implements ReactiveBeforeSaveCallback<Item>, ReactiveAfterSaveCallback<Item> {
+
+    /**
+     * Subscriber context key of the number reserved for a save.
+     */
+    public static final String LAST_MODIFIED = LastModifiedCallback.class.getName() + ".lastModified";
+
+    @Autowired
+    ItemSequence itemSequence;
+
+    @Override
+    public Publisher<Item> onBeforeSave(Item item, Document document, String collection) {
+
+        return Mono.subscriberContext()
+                .flatMap(context -> context.<Long>getOrEmpty(LAST_MODIFIED)
+                        .map(lastModified -> Mono.just(stamp(document, lastModified)))
+                        .orElseGet(() -> itemSequence.reserve(1)
+                                .map(lastModified -> stamp(document, lastModified))))
+                .thenReturn(item);
+    }
+
+    @Override
+    public Publisher<Item> onAfterSave(Item item, Document document, String collection) {
+
+        return Mono.subscriberContext()
+                .doOnNext(context -> {
+                    if (!context.hasKey(LAST_MODIFIED)) {
+                        itemSequence.release(document.get(ItemSequence.FIELD, Number.class).longValue());
+                    }
+                })
+                .thenReturn(item);
+    }
+
+    private static Document stamp(Document document, long lastModified) {
+
+        document.put(ItemSequence.FIELD, lastModified);
+        return document;
+    }
+
+}
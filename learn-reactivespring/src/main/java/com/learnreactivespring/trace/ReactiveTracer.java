@@ -0,0 +1,190 @@
+package com.learnreactivespring.trace;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replacement for {@code .log()} on request paths. A traced sequence records
+ * its duration, time to first element and element count as meters tagged by
+ * route, and writes one log line at the end, only when it was sampled or
+ * slow. Tracing is configured per route and can be changed at runtime
+ * through the {@code tracing} actuator endpoint. When a route is not traced
+ * the source is returned as is, so the request path pays nothing.
+ */
+@Component
+@Slf4j
+public class ReactiveTracer {
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Value("${item.tracing.enabled:false}")
+    boolean enabled;
+
+    @Value("${item.tracing.sample-rate:0.01}")
+    double sampleRate;
+
+    @Value("${item.tracing.slow-threshold:500ms}")
+    Duration slowThreshold;
+
+    private volatile TraceSettings defaults;
+
+    private final Map<String, TraceSettings> routes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+
+        defaults = new TraceSettings(enabled, sampleRate, slowThreshold.toMillis());
+    }
+
+    public <T> Flux<T> trace(String route, Flux<T> source) {
+
+        TraceSettings settings = settings(route);
+        if (!settings.isEnabled()) {
+            return source;
+        }
+        return Flux.defer(() -> {
+            Trace trace = new Trace(route, settings);
+            return source.doOnRequest(trace::requested)
+                    .doOnNext(trace::next)
+                    .doOnError(trace::failed)
+                    .doOnTerminate(trace::terminated)
+                    .doOnCancel(trace::cancelled);
+        });
+    }
+
+    public <T> Mono<T> trace(String route, Mono<T> source) {
+
+        TraceSettings settings = settings(route);
+        if (!settings.isEnabled()) {
+            return source;
+        }
+        return Mono.defer(() -> {
+            Trace trace = new Trace(route, settings);
+            return source.doOnRequest(trace::requested)
+                    .doOnNext(trace::next)
+                    .doOnError(trace::failed)
+                    .doOnTerminate(trace::terminated)
+                    .doOnCancel(trace::cancelled);
+        });
+    }
+
+    public TraceSettings settings(String route) {
+
+        return routes.getOrDefault(route, defaults);
+    }
+
+    public TraceSettings getDefaults() {
+        return defaults;
+    }
+
+    public Map<String, TraceSettings> getRoutes() {
+        return Collections.unmodifiableMap(routes);
+    }
+
+    public void configure(String route, TraceSettings settings) {
+
+        log.info("Tracing for route {} set to {}", route, settings);
+        routes.put(route, settings);
+    }
+
+    public void reset(String route) {
+
+        routes.remove(route);
+    }
+
+    private class Trace {
+
+        private final String route;
+        private final TraceSettings settings;
+        private final long start = System.nanoTime();
+        private long firstElement = -1;
+        private long elements;
+        private long requested;
+        private Throwable error;
+
+        Trace(String route, TraceSettings settings) {
+            this.route = route;
+            this.settings = settings;
+        }
+
+        void requested(long n) {
+
+            requested = n == Long.MAX_VALUE || requested + n < 0 ? Long.MAX_VALUE : requested + n;
+        }
+
+        void next(Object value) {
+
+            if (firstElement < 0) {
+                firstElement = System.nanoTime() - start;
+            }
+            elements++;
+        }
+
+        void failed(Throwable ex) {
+
+            error = ex;
+        }
+
+        void terminated() {
+
+            finish(error != null ? "error" : "success");
+        }
+
+        void cancelled() {
+
+            finish("cancelled");
+        }
+
+        /**
+         * Runs before the terminal signal is passed on, so the meters are
+         * up to date by the time the response completes.
+         */
+        private void finish(String outcome) {
+
+            long duration = System.nanoTime() - start;
+
+            Timer.builder("reactive.trace.duration")
+                    .description("Traced sequences, from subscription to termination")
+                    .tags("route", route, "outcome", outcome)
+                    .register(meterRegistry)
+                    .record(duration, TimeUnit.NANOSECONDS);
+            DistributionSummary.builder("reactive.trace.elements")
+                    .description("Elements emitted per traced sequence")
+                    .tags("route", route)
+                    .register(meterRegistry)
+                    .record(elements);
+            if (firstElement >= 0) {
+                Timer.builder("reactive.trace.first.element")
+                        .description("Time from subscription to the first element")
+                        .tags("route", route)
+                        .register(meterRegistry)
+                        .record(firstElement, TimeUnit.NANOSECONDS);
+            }
+
+            boolean slow = duration >= TimeUnit.MILLISECONDS.toNanos(settings.getSlowThresholdMillis());
+            if (slow || ThreadLocalRandom.current().nextDouble() < settings.getSampleRate()) {
+                log.info("route={} outcome={} elements={} requested={} firstElementMs={} durationMs={} slow={}",
+                        route, outcome, elements, requested == Long.MAX_VALUE ? "unbounded" : requested,
+                        firstElement < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(firstElement),
+                        TimeUnit.NANOSECONDS.toMillis(duration), slow, error);
+            }
+        }
+    }
+
+}
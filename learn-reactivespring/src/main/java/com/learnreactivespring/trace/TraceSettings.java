@@ -0,0 +1,23 @@
+package com.learnreactivespring.trace;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class TraceSettings {
+
+    private boolean enabled;
+
+    /**
+     * Fraction of traced sequences that are logged, 0 to 1.
+     */
+    private double sampleRate;
+
+    /**
+     * Sequences taking at least this long are always logged.
+     */
+    private long slowThresholdMillis;
+}
@@ -0,0 +1,62 @@
+package com.learnreactivespring.trace;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * {@code /actuator/tracing}: shows the tracing defaults and per-route
+ * overrides. POST {@code /actuator/tracing/{route}} with any of enabled,
+ * sampleRate and slowThresholdMillis overrides a route, DELETE goes back to
+ * the defaults.
+ */
+@Component
+@Endpoint(id = "tracing")
+public class TracingEndpoint {
+
+    @Autowired
+    ReactiveTracer reactiveTracer;
+
+    @ReadOperation
+    public Map<String, Object> tracing() {
+
+        Map<String, Object> tracing = new LinkedHashMap<>();
+        tracing.put("defaults", reactiveTracer.getDefaults());
+        tracing.put("routes", reactiveTracer.getRoutes());
+        return tracing;
+    }
+
+    @ReadOperation
+    public TraceSettings route(@Selector String route) {
+
+        return reactiveTracer.settings(route);
+    }
+
+    @WriteOperation
+    public TraceSettings configure(@Selector String route, @Nullable Boolean enabled,
+                                   @Nullable Double sampleRate, @Nullable Long slowThresholdMillis) {
+
+        TraceSettings current = reactiveTracer.settings(route);
+        TraceSettings settings = new TraceSettings(
+                enabled != null ? enabled : current.isEnabled(),
+                sampleRate != null ? sampleRate : current.getSampleRate(),
+                slowThresholdMillis != null ? slowThresholdMillis : current.getSlowThresholdMillis());
+        reactiveTracer.configure(route, settings);
+        return settings;
+    }
+
+    @DeleteOperation
+    public void reset(@Selector String route) {
+
+        reactiveTracer.reset(route);
+    }
+
+}
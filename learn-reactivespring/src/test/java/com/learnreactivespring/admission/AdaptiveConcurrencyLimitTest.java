@@ -0,0 +1,64 @@
+package com.learnreactivespring.admission;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveConcurrencyLimitTest {
+
+    @Test
+    public void rejectsOverLimit() {
+
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10, 10, 1.5, 0.2);
+
+        assertTrue(limit.tryAcquire());
+        assertTrue(limit.tryAcquire());
+        assertFalse(limit.tryAcquire());
+
+        limit.release(TimeUnit.MILLISECONDS.toNanos(5));
+        assertTrue(limit.tryAcquire());
+    }
+
+    @Test
+    public void growsWhileLatencyIsSteadyAndShrinksWhenItRises() {
+
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(20, 10, 1000, 20, 1.5, 0.2);
+
+        runWindows(limit, 5, 20, 10);
+        int grown = limit.getLimit();
+        assertTrue(grown > 20);
+
+        runWindows(limit, 5, grown, 100);
+        assertTrue(limit.getLimit() < grown);
+    }
+
+    @Test
+    public void ignoresWindowsThatDidNotUseTheLimit() {
+
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(100, 10, 1000, 20, 1.5, 0.2);
+
+        runWindows(limit, 5, 5, 10);
+
+        assertEquals(100, limit.getLimit());
+    }
+
+    private static void runWindows(AdaptiveConcurrencyLimit limit, int windows, int concurrency, long rttMillis) {
+
+        for (int window = 0; window < windows; window++) {
+            for (int request = 0; request < 20; request += concurrency) {
+                int acquired = 0;
+                for (int i = 0; i < concurrency && limit.tryAcquire(); i++) {
+                    acquired++;
+                }
+                for (int i = 0; i < acquired; i++) {
+                    limit.release(TimeUnit.MILLISECONDS.toNanos(rttMillis));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.learnreactivespring.admission;
+
+import com.learnreactivespring.admission.AdmissionControlFilter.RouteGroup;
+import org.junit.Test;
+import org.springframework.mock.http.server.reactive.MockServerHttpRequest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AdmissionControlFilterTest {
+
+    @Test
+    public void classifiesItemRoutes() {
+
+        assertEquals(RouteGroup.READS, AdmissionControlFilter.classify(MockServerHttpRequest.get("/v1/items").build()));
+        assertEquals(RouteGroup.READS, AdmissionControlFilter.classify(MockServerHttpRequest.post("/v1/fun/items/batchGet").build()));
+        assertEquals(RouteGroup.WRITES, AdmissionControlFilter.classify(MockServerHttpRequest.post("/v1/items/bulk").build()));
+        assertEquals(RouteGroup.STREAMS, AdmissionControlFilter.classify(MockServerHttpRequest.get("/v1/stream/items/events").build()));
+    }
+
+    @Test
+    public void ignoresPathsThatOnlyShareAPrefix() {
+
+        assertNull(AdmissionControlFilter.classify(MockServerHttpRequest.get("/v1/itemsX").build()));
+        assertNull(AdmissionControlFilter.classify(MockServerHttpRequest.post("/v1/fun/itemsX").build()));
+        assertNull(AdmissionControlFilter.classify(MockServerHttpRequest.get("/v1/stream/itemsX").build()));
+    }
+
+}
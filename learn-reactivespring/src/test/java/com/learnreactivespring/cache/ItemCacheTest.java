@@ -0,0 +1,60 @@
+package com.learnreactivespring.cache;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ItemCacheTest {
+
+    private ItemCache itemCache;
+
+    private ItemReactiveRepository itemReactiveRepository;
+
+    @Before
+    public void setUp() {
+
+        itemReactiveRepository = mock(ItemReactiveRepository.class);
+        itemCache = new ItemCache(100, Duration.ofMinutes(1));
+        itemCache.itemReactiveRepository = itemReactiveRepository;
+    }
+
+    @Test
+    public void hitsDoNotReadAgain() {
+
+        when(itemReactiveRepository.findById("ABC")).thenReturn(Mono.just(new Item("ABC", "Apple", 1.0)));
+
+        itemCache.findById("ABC").block();
+        itemCache.findById("ABC").block();
+
+        verify(itemReactiveRepository, times(1)).findById("ABC");
+    }
+
+    @Test
+    public void valueLoadedAcrossAnEvictionIsNotKept() {
+
+        MonoProcessor<Item> staleRead = MonoProcessor.create();
+        when(itemReactiveRepository.findById("ABC"))
+                .thenReturn(staleRead)
+                .thenReturn(Mono.just(new Item("ABC", "Apple", 2.0)));
+
+        Mono<Item> loading = itemCache.findById("ABC").cache();
+        loading.subscribe();
+        itemCache.evict("ABC");
+        staleRead.onNext(new Item("ABC", "Apple", 1.0));
+
+        assertEquals(Double.valueOf(1.0), loading.block().getPrice());
+        assertEquals(Double.valueOf(2.0), itemCache.findById("ABC").block().getPrice());
+    }
+
+}
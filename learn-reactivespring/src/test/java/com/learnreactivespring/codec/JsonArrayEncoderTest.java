@@ -0,0 +1,67 @@
+package com.learnreactivespring.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learnreactivespring.document.Item;
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class JsonArrayEncoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final JsonArrayEncoder encoder = new JsonArrayEncoder(objectMapper, MediaType.APPLICATION_JSON);
+
+    @Test
+    public void fluxIsWrittenAsTheArrayJacksonWrites() throws Exception {
+
+        Item first = new Item("A", "Apple", 1.0);
+        Item second = new Item("B", "Banana", null);
+
+        assertEquals(objectMapper.writeValueAsString(Arrays.asList(first, second)), encode(Flux.just(first, second)));
+    }
+
+    @Test
+    public void emptyFluxIsAnEmptyArray() {
+
+        assertEquals("[]", encode(Flux.empty()));
+    }
+
+    @Test
+    public void monoIsASingleValue() throws Exception {
+
+        Item item = new Item("A", "Apple", 1.0);
+
+        assertEquals(objectMapper.writeValueAsString(item), encode(Mono.just(item)));
+    }
+
+    @Test
+    public void elementsAreWrittenAsTheyCome() {
+
+        assertEquals(Long.valueOf(2), encoder.encode(Flux.concat(Flux.just(new Item("A", "Apple", 1.0)), Flux.never()),
+                new DefaultDataBufferFactory(), ResolvableType.forClass(Item.class), MediaType.APPLICATION_JSON, Collections.emptyMap())
+                .take(2)
+                .count()
+                .block());
+    }
+
+    private String encode(Publisher<Item> items) {
+
+        return DataBufferUtils.join(encoder.encode(items, new DefaultDataBufferFactory(),
+                ResolvableType.forClass(Item.class), MediaType.APPLICATION_JSON, Collections.emptyMap()))
+                .map(buffer -> buffer.toString(StandardCharsets.UTF_8))
+                .block();
+    }
+
+}
@@ -16,6 +16,7 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
@@ -94,6 +95,56 @@ public class FluxAndMonoControllerTest {
 
     }
 
+    @Test
+    public void flux_wildcardAcceptGetsJson(){
+
+        webTestClient.get().uri("/flux")
+                .accept(MediaType.ALL)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.APPLICATION_JSON)
+                .expectBody(String.class).isEqualTo("[1,2,3,4]");
+
+    }
+
+    @Test
+    public void flux_ndjsonWhenAccepted(){
+
+        webTestClient.get().uri("/flux")
+                .accept(MediaType.valueOf("application/x-ndjson"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentTypeCompatibleWith(MediaType.valueOf("application/x-ndjson"))
+                .expectBody(String.class).isEqualTo("1\n2\n3\n4\n");
+
+    }
+
+    @Test
+    public void flux_tracedAtRuntime(){
+
+        webTestClient.post().uri("/actuator/tracing/flux")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(Collections.singletonMap("enabled", true))
+                .exchange()
+                .expectStatus().isOk();
+
+        webTestClient.get().uri("/flux")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Integer.class)
+                .hasSize(4);
+
+        webTestClient.get().uri("/actuator/metrics/reactive.trace.elements?tag=route:flux")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.measurements[?(@.statistic == 'TOTAL')].value").isEqualTo(4.0);
+
+        webTestClient.delete().uri("/actuator/tracing/flux")
+                .exchange()
+                .expectStatus().is2xxSuccessful();
+    }
+
     @Test
     public void fluxStream(){
 
@@ -2,6 +2,11 @@ package com.learnreactivespring.controller.v1;
 
 import com.learnreactivespring.constants.ItemConstants;
 import com.learnreactivespring.document.Item;
+import com.learnreactivespring.domain.ItemBatchResult;
+import com.learnreactivespring.domain.ItemBatchUpdateResult;
+import com.learnreactivespring.domain.ItemLookupResult;
+import com.learnreactivespring.domain.ItemSyncChange;
+import com.learnreactivespring.domain.ItemSyncPage;
 import com.learnreactivespring.repository.ItemReactiveRepository;
 import org.junit.Before;
 import org.junit.Test;
@@ -9,19 +14,32 @@ import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static com.learnreactivespring.constants.ItemConstants.ITEM_END_POINT_V1;
+import static com.learnreactivespring.config.CodecConfig.APPLICATION_NDJSON;
+import static com.learnreactivespring.config.CodecConfig.APPLICATION_SMILE;
+import static com.learnreactivespring.constants.ItemConstants.CONTINUATION_TOKEN_HEADER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 @SpringBootTest
@@ -63,6 +81,7 @@ public class ItemControllerTest {
                 .exchange()
                 .expectStatus().isOk()
                 .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectHeader().doesNotExist(CONTINUATION_TOKEN_HEADER)
                 .expectBodyList(Item.class)
                 .hasSize(4);
 
@@ -101,6 +120,178 @@ public class ItemControllerTest {
                 .verifyComplete();
     }
 
+    @Test
+    public void getAllItems_pages(){
+
+        String token = webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1 + "?limit=3")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(CONTINUATION_TOKEN_HEADER)
+                .expectBodyList(Item.class)
+                .hasSize(3)
+                .returnResult()
+                .getResponseHeaders()
+                .getFirst(CONTINUATION_TOKEN_HEADER);
+
+        webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1 + "?limit=3&after={token}", token)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(CONTINUATION_TOKEN_HEADER)
+                .expectBodyList(Item.class)
+                .hasSize(1);
+    }
+
+    @Test
+    public void getAllItems_filteredSortedProjected(){
+
+        EntityExchangeResult<List<Item>> firstPage = webTestClient.get()
+                .uri(ITEM_END_POINT_V1 + "?minPrice=300&maxPrice=400&sort=price,desc&fields=description&limit=2")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(CONTINUATION_TOKEN_HEADER)
+                .expectBodyList(Item.class)
+                .hasSize(2)
+                .returnResult();
+
+        List<Item> items = firstPage.getResponseBody();
+        assertEquals(Arrays.asList("Samsung TV", "Apple Watch"),
+                Arrays.asList(items.get(0).getDescription(), items.get(1).getDescription()));
+        assertEquals(Double.valueOf(399.99), items.get(0).getPrice());
+
+        String token = firstPage.getResponseHeaders().getFirst(CONTINUATION_TOKEN_HEADER);
+
+        webTestClient.get()
+                .uri(ITEM_END_POINT_V1 + "?minPrice=300&maxPrice=400&sort=price,desc&fields=description&limit=2&after={after}", token)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Item.class)
+                .hasSize(1)
+                .consumeWith(response -> assertEquals("LG TV", response.getResponseBody().get(0).getDescription()));
+
+        webTestClient.get().uri(ITEM_END_POINT_V1 + "?descriptionPrefix=Beats&fields=price")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Item.class)
+                .hasSize(1)
+                .consumeWith(response -> assertNull(response.getResponseBody().get(0).getDescription()));
+
+        webTestClient.get().uri(ITEM_END_POINT_V1 + "?sort=weight")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void getAllItems_tokenOfAnotherListing(){
+
+        String token = webTestClient.get().uri(ITEM_END_POINT_V1 + "?sort=price,desc&limit=2")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Item.class)
+                .getResponseHeaders().getFirst(CONTINUATION_TOKEN_HEADER);
+
+        webTestClient.get().uri(ITEM_END_POINT_V1 + "?sort=price,asc&limit=2&after={after}", token)
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        webTestClient.get().uri(ITEM_END_POINT_V1 + "?sort=price,desc&minPrice=300&limit=2&after={after}", token)
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        webTestClient.get().uri(ITEM_END_POINT_V1 + "?limit=2&after={after}", token)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void getAllItems_descendingPagesReachItemsWithoutTheSortField(){
+
+        itemReactiveRepository.save(new Item("NOPRICE", "Gift Card", null)).block();
+
+        String token = webTestClient.get().uri(ITEM_END_POINT_V1 + "?sort=price,desc&limit=4")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Item.class)
+                .getResponseHeaders().getFirst(CONTINUATION_TOKEN_HEADER);
+
+        webTestClient.get().uri(ITEM_END_POINT_V1 + "?sort=price,desc&limit=4&after={after}", token)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Item.class)
+                .hasSize(1)
+                .consumeWith(response -> assertEquals("NOPRICE", response.getResponseBody().get(0).getId()));
+    }
+
+    @Test
+    public void getAllItems_cbor(){
+
+        webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1)
+                .accept(MediaType.APPLICATION_CBOR)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_CBOR)
+                .expectBody(new ParameterizedTypeReference<List<Item>>() {})
+                .value(items -> assertEquals(4, items.size()));
+    }
+
+    @Test
+    public void createItem_smile(){
+
+        Item item = new Item(null, "Iphone X", 999.99);
+
+        webTestClient.post().uri(ItemConstants.ITEM_END_POINT_V1)
+                .contentType(APPLICATION_SMILE)
+                .accept(APPLICATION_SMILE)
+                .body(Mono.just(item), Item.class)
+                .exchange()
+                .expectStatus().isCreated()
+                .expectHeader().contentType(APPLICATION_SMILE)
+                .expectBody(Item.class)
+                .value(created -> {
+                    assertTrue(created.getId() != null);
+                    assertEquals(item.getDescription(), created.getDescription());
+                });
+    }
+
+    @Test
+    public void getAllItems_raw(){
+
+        byte[] expected = webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .returnResult()
+                .getResponseBody();
+
+        webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1 + "?raw=true")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBody()
+                .consumeWith(result -> assertArrayEquals(expected, result.getResponseBody()));
+    }
+
+    @Test
+    public void getOneItem_recordsMetrics(){
+
+        webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"),"DEF")
+                .exchange()
+                .expectStatus().isNotFound();
+
+        String metrics = Mono.fromCallable(() -> webTestClient.get().uri("/actuator/prometheus")
+                        .exchange()
+                        .expectStatus().isOk()
+                        .expectBody(String.class)
+                        .returnResult()
+                        .getResponseBody())
+                .filter(body -> body.contains("route=\"/v1/items/{id}\"") && body.contains("style=\"annotated\""))
+                .repeatWhenEmpty(repeat -> repeat.delayElements(Duration.ofMillis(50)).take(20))
+                .block();
+
+        assertNotNull(metrics);
+        assertTrue(metrics.contains("item_repository_invocations_seconds_count{method=\"findById\",outcome=\"success\",repository=\"ItemReactiveRepository\""));
+        assertTrue(metrics.contains("item_stream_subscribers"));
+    }
+
     @Test
     public void getOneItem(){
 
@@ -112,6 +303,24 @@ public class ItemControllerTest {
 
     }
 
+    @Test
+    public void searchItems(){
+
+        webTestClient.get().uri(ItemConstants.ITEM_SEARCH_END_POINT_V1 + "?q=tv")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Item.class)
+                .hasSize(2)
+                .consumeWith(response -> assertEquals("LG TV", response.getResponseBody().get(0).getDescription()));
+
+        webTestClient.get().uri(ItemConstants.ITEM_SEARCH_END_POINT_V1 + "?q=BEAT-head")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Item.class)
+                .hasSize(1)
+                .consumeWith(response -> assertEquals("ABC", response.getResponseBody().get(0).getId()));
+    }
+
     @Test
     public void getOneItem_notFound(){
 
@@ -121,6 +330,58 @@ public class ItemControllerTest {
 
     }
 
+    @Test
+    public void batchGet(){
+
+        List<ItemLookupResult> results = webTestClient.post().uri(ItemConstants.ITEM_BATCH_GET_END_POINT_V1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(MediaType.APPLICATION_JSON)
+                .bodyValue(Arrays.asList("ABC", "DEF", "ABC"))
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(ItemLookupResult.class)
+                .hasSize(2)
+                .returnResult()
+                .getResponseBody();
+
+        assertTrue(results.contains(new ItemLookupResult("ABC", true, new Item("ABC", "Beats HeadPhones", 149.99))));
+        assertTrue(results.contains(ItemLookupResult.missing("DEF")));
+    }
+
+    @Test
+    public void batchGet_streamedIds(){
+
+        Flux<ItemLookupResult> results = webTestClient.post().uri(ItemConstants.ITEM_BATCH_GET_END_POINT_V1)
+                .contentType(APPLICATION_NDJSON)
+                .accept(APPLICATION_NDJSON)
+                .bodyValue("ABC\n\"DEF\"\n")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemLookupResult.class)
+                .getResponseBody();
+
+        StepVerifier.create(results.map(ItemLookupResult::isFound))
+                .expectNext(true)
+                .expectNext(false)
+                .verifyComplete();
+    }
+
+    @Test
+    public void batchGet_tooManyIds(){
+
+        // the first chunks could be answered long before the id over the limit arrives
+        String idLines = IntStream.rangeClosed(0, 10000)
+                .mapToObj(i -> "id-" + i)
+                .collect(Collectors.joining("\n"));
+
+        webTestClient.post().uri(ItemConstants.ITEM_BATCH_GET_END_POINT_V1)
+                .contentType(APPLICATION_NDJSON)
+                .accept(APPLICATION_NDJSON)
+                .bodyValue(idLines)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
     @Test
     public void createItem(){
 
@@ -167,6 +428,29 @@ public class ItemControllerTest {
 
     }
 
+    @Test
+    public void getOneItem_afterUpdate(){
+
+        webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"),"ABC")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.price").isEqualTo(149.99);
+
+        webTestClient.put().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"),"ABC")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new Item(null,"Beats HeadPhones", 129.99)), Item.class)
+                .exchange()
+                .expectStatus().isOk();
+
+        webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"),"ABC")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .jsonPath("$.price").isEqualTo(129.99);
+
+    }
+
     @Test
     public void updateItem_notFound(){
         double newPrice =129.99;
@@ -193,4 +477,112 @@ public class ItemControllerTest {
 
     }
 
+    @Test
+    public void createItemsInBulk(){
+
+        String body = "{\"description\":\"Iphone X\",\"price\":999.99}\n" +
+                "{\"id\":\"ABC\",\"description\":\"Beats HeadPhones\",\"price\":149.99}\n" +
+                "{\"description\":\"Pixel 4\",\"price\":799.99}\n";
+
+        List<ItemBatchResult> results = webTestClient.post().uri(ItemConstants.ITEM_BULK_END_POINT_V1)
+                .contentType(APPLICATION_NDJSON)
+                .accept(APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemBatchResult.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertEquals(2, results.stream().mapToInt(ItemBatchResult::getInserted).sum());
+        assertEquals(1, results.stream().mapToLong(result -> result.getFailures().size()).sum());
+        assertEquals(1, results.stream().flatMap(result -> result.getFailures().stream()).findFirst().get().getIndex());
+        assertEquals(Long.valueOf(6), itemReactiveRepository.count().block());
+    }
+
+    @Test
+    public void syncItems(){
+
+        ItemSyncPage snapshot = webTestClient.get().uri(ItemConstants.ITEM_SYNC_END_POINT_V1 + "?limit=3")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ItemSyncPage.class)
+                .returnResult()
+                .getResponseBody();
+        assertEquals(3, snapshot.getChanges().size());
+        assertTrue(snapshot.isMore());
+
+        ItemSyncPage snapshotEnd = webTestClient.get().uri(ItemConstants.ITEM_SYNC_END_POINT_V1 + "?limit=3&since={since}", snapshot.getToken())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ItemSyncPage.class)
+                .returnResult()
+                .getResponseBody();
+        assertEquals(1, snapshotEnd.getChanges().size());
+        assertFalse(snapshotEnd.isMore());
+
+        String deletedId = snapshot.getChanges().stream()
+                .map(ItemSyncChange::getId)
+                .filter(id -> !id.equals("ABC"))
+                .findFirst()
+                .get();
+
+        webTestClient.put().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"),"ABC")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new Item(null,"Beats HeadPhones", 129.99)), Item.class)
+                .exchange()
+                .expectStatus().isOk();
+        webTestClient.delete().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"), deletedId)
+                .exchange()
+                .expectStatus().isOk();
+        // nothing to delete, so no tombstone either
+        webTestClient.delete().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"), "NEVER-EXISTED")
+                .exchange()
+                .expectStatus().isOk();
+
+        ItemSyncPage delta = webTestClient.get().uri(ItemConstants.ITEM_SYNC_END_POINT_V1 + "?since={since}", snapshotEnd.getToken())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ItemSyncPage.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertEquals(2, delta.getChanges().size());
+        assertEquals("ABC", delta.getChanges().get(0).getId());
+        assertEquals(Double.valueOf(129.99), delta.getChanges().get(0).getItem().getPrice());
+        assertEquals(deletedId, delta.getChanges().get(1).getId());
+        assertTrue(delta.getChanges().get(1).isDeleted());
+
+        webTestClient.get().uri(ItemConstants.ITEM_SYNC_END_POINT_V1 + "?since=notatoken")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void updateItemsInBulk(){
+
+        String body = "{\"id\":\"ABC\",\"price\":129.99}\n" +
+                "{\"id\":\"DEF\",\"price\":99.99}\n" +
+                "{\"id\":\"ABC\"}\n";
+
+        List<ItemBatchUpdateResult> results = webTestClient.patch().uri(ItemConstants.ITEM_BULK_END_POINT_V1)
+                .contentType(APPLICATION_NDJSON)
+                .accept(APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemBatchUpdateResult.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertEquals(1, results.stream().mapToInt(ItemBatchUpdateResult::getMatched).sum());
+        assertEquals(2, results.stream().flatMap(result -> result.getFailures().stream()).findFirst().get().getIndex());
+
+        Item updated = itemReactiveRepository.findById("ABC").block();
+        assertEquals(129.99, updated.getPrice(), 0);
+        assertEquals("Beats HeadPhones", updated.getDescription());
+    }
+
 }
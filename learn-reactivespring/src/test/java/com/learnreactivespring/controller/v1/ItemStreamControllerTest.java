@@ -4,16 +4,20 @@ import com.learnreactivespring.constants.ItemConstants;
 import com.learnreactivespring.document.Item;
 import com.learnreactivespring.document.ItemCapped;
 import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import org.bson.types.ObjectId;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.data.mongodb.core.CollectionOptions;
 import org.springframework.data.mongodb.core.MongoOperations;
 import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
@@ -22,6 +26,14 @@ import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 
 import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static com.learnreactivespring.config.CodecConfig.APPLICATION_NDJSON;
+import static com.learnreactivespring.config.CodecConfig.APPLICATION_STREAM_SMILE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 @SpringBootTest
 @RunWith(SpringRunner.class)
@@ -42,7 +54,7 @@ public class ItemStreamControllerTest {
     @Before
     public void setUp() {
 
-        mongoOperations.dropCollection(ItemCapped.class);
+        mongoOperations.dropCollection(ItemCapped.class).block();
         mongoOperations.createCollection(ItemCapped.class, CollectionOptions.empty().maxDocuments(20).size(50000).capped())
                 .block();
 
@@ -77,5 +89,144 @@ public class ItemStreamControllerTest {
 
     }
 
+    @Test
+    public void testStreamAllItems_smile() {
+
+        Flux<ItemCapped> itemCappedFlux = webTestClient.get().uri(ItemConstants.ITEM_STREAM_END_POINT_V1)
+                .accept(APPLICATION_STREAM_SMILE)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(APPLICATION_STREAM_SMILE)
+                .returnResult((ItemCapped.class))
+                .getResponseBody()
+                .take(5);
+
+        StepVerifier.create(itemCappedFlux)
+                .expectNextMatches(itemCapped -> itemCapped.getDescription().startsWith("Random Item"))
+                .expectNextCount(4)
+                .verifyComplete();
+
+    }
+
+    @Test
+    public void testStreamAllItems_throttled() {
+
+        Flux<ItemCapped> itemCappedFlux = webTestClient.get().uri(ItemConstants.ITEM_STREAM_END_POINT_V1 + "?rate=2")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult((ItemCapped.class))
+                .getResponseBody()
+                .take(5);
+
+        Duration elapsed = StepVerifier.create(itemCappedFlux)
+                .expectNextCount(5)
+                .verifyComplete();
+
+        // a burst of 2, then one item every 500ms
+        assertTrue(elapsed.toMillis() >= 1400);
+    }
+
+    @Test
+    public void testStreamAllItems_twoSubscribers() {
+
+        Flux<ItemCapped> first = webTestClient.get().uri(ItemConstants.ITEM_STREAM_END_POINT_V1)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult((ItemCapped.class))
+                .getResponseBody()
+                .take(5);
+
+        Flux<ItemCapped> second = webTestClient.get().uri(ItemConstants.ITEM_STREAM_END_POINT_V1)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult((ItemCapped.class))
+                .getResponseBody()
+                .take(5);
+
+        StepVerifier.create(Flux.merge(first, second))
+                .expectNextCount(10)
+                .verifyComplete();
+
+    }
+
+    @Test
+    public void testEventStream_resumesAfterLastEventId() {
+
+        ParameterizedTypeReference<ServerSentEvent<ItemCapped>> eventType = new ParameterizedTypeReference<ServerSentEvent<ItemCapped>>() {};
+
+        List<ServerSentEvent<ItemCapped>> events = webTestClient.get().uri(ItemConstants.ITEM_EVENT_STREAM_END_POINT_V1)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(eventType)
+                .getResponseBody()
+                .filter(event -> event.data() != null)
+                .take(5)
+                .collectList()
+                .block();
+
+        String lastEventId = events.get(2).id();
+        assertEquals(lastEventId, events.get(2).data().getId());
+
+        Flux<ItemCapped> resumed = webTestClient.get().uri(ItemConstants.ITEM_EVENT_STREAM_END_POINT_V1)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .header(ItemConstants.LAST_EVENT_ID_HEADER, lastEventId)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(eventType)
+                .getResponseBody()
+                .filter(event -> event.data() != null)
+                .map(ServerSentEvent::data);
+
+        StepVerifier.create(resumed)
+                .expectNextMatches(item -> item.getId().equals(events.get(3).id()))
+                .expectNextMatches(item -> item.getId().equals(events.get(4).id()))
+                .thenCancel()
+                .verify();
+
+    }
+
+    @Test
+    public void testEventStream_resetWhenLastEventIdIsNoLongerRetained() {
+
+        ParameterizedTypeReference<ServerSentEvent<Map<String, Object>>> eventType = new ParameterizedTypeReference<ServerSentEvent<Map<String, Object>>>() {};
+        String evicted = new ObjectId(new Date(0)).toHexString();
+
+        Flux<ServerSentEvent<Map<String, Object>>> resumed = webTestClient.get().uri(ItemConstants.ITEM_EVENT_STREAM_END_POINT_V1)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .header(ItemConstants.LAST_EVENT_ID_HEADER, evicted)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(eventType)
+                .getResponseBody()
+                .filter(event -> event.event() != null || event.data() != null);
+
+        StepVerifier.create(resumed)
+                .expectNextMatches(event -> "reset".equals(event.event()) && evicted.equals(event.data().get("lastEventId")))
+                .expectNextMatches(event -> "Random Item 0".equals(event.data().get("description")))
+                .expectNextCount(4)
+                .thenCancel()
+                .verify();
+
+    }
+
+    @Test
+    public void testChangeFeed_rejectsUnknownOperationType() {
+
+        webTestClient.get().uri(ItemConstants.ITEM_CHANGES_END_POINT_V1 + "?operationType=insert,truncate")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void testChangeFeed_unavailableWithoutChangeStreams() {
+
+        // the embedded test Mongo is a standalone server, so item.changes.enabled stays off
+        webTestClient.get().uri(ItemConstants.ITEM_CHANGES_END_POINT_V1 + "?operationType=update,delete")
+                .accept(APPLICATION_NDJSON)
+                .exchange()
+                .expectStatus().isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+    }
 
 }
@@ -2,13 +2,17 @@ package com.learnreactivespring.handler;
 
 import com.learnreactivespring.constants.ItemConstants;
 import com.learnreactivespring.document.Item;
+import com.learnreactivespring.domain.ItemBatchResult;
+import com.learnreactivespring.domain.ItemLookupResult;
 import com.learnreactivespring.repository.ItemReactiveRepository;
+import org.bson.Document;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import org.springframework.http.MediaType;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
@@ -19,6 +23,12 @@ import reactor.core.publisher.Flux;
 import java.util.Arrays;
 import java.util.List;
 
+import static com.learnreactivespring.config.CodecConfig.APPLICATION_NDJSON;
+import static com.learnreactivespring.config.CodecConfig.APPLICATION_SMILE;
+import static com.learnreactivespring.constants.ItemConstants.CONTINUATION_TOKEN_HEADER;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
 @SpringBootTest
 @RunWith(SpringRunner.class)
 @DirtiesContext
@@ -32,6 +42,9 @@ public class ItemHandlerTest {
     @Autowired
     ItemReactiveRepository itemReactiveRepository;
 
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
     public List<Item> data() {
 
         return Arrays.asList(new Item(null, "Samsung TV", 399.99),
@@ -58,11 +71,84 @@ public class ItemHandlerTest {
                 .exchange()
                 .expectStatus().isOk()
                 .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectHeader().doesNotExist(CONTINUATION_TOKEN_HEADER)
                 .expectBodyList(Item.class)
                 .hasSize(4);
 
     }
 
+    @Test
+    public void getAllItems_raw(){
+
+        // an id that is neither an ObjectId nor a string, as data loaded by other tools may have
+        mongoOperations.insert(new Document("_id", 42).append("description", "Numbered Item").append("price", 9.99),
+                mongoOperations.getCollectionName(Item.class))
+                .block();
+
+        byte[] expected = webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody()
+                .returnResult()
+                .getResponseBody();
+
+        webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1 + "?raw=true")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(MediaType.APPLICATION_JSON)
+                .expectBody()
+                .consumeWith(result -> assertArrayEquals(expected, result.getResponseBody()));
+    }
+
+    @Test
+    public void getAllItems_pages(){
+
+        String token = webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1 + "?limit=3")
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(CONTINUATION_TOKEN_HEADER)
+                .expectBodyList(Item.class)
+                .hasSize(3)
+                .returnResult()
+                .getResponseHeaders()
+                .getFirst(CONTINUATION_TOKEN_HEADER);
+
+        webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1 + "?limit=3&after={token}", token)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().doesNotExist(CONTINUATION_TOKEN_HEADER)
+                .expectBodyList(Item.class)
+                .hasSize(1);
+    }
+
+    @Test
+    public void getAllItems_descriptionPrefix(){
+
+        webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1 + "?descriptionPrefix=LG&fields=description")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Item.class)
+                .hasSize(1)
+                .consumeWith(response -> assertEquals("LG TV", response.getResponseBody().get(0).getDescription()));
+
+        webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1 + "?minPrice=abc")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void getOneItem_smile(){
+
+        webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1.concat("/{id}"),"ABC")
+                .accept(APPLICATION_SMILE)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(APPLICATION_SMILE)
+                .expectBody(Item.class)
+                .value(item -> assertEquals(149.99, item.getPrice(), 0));
+
+    }
+
     @Test
     public void getOneItem(){
 
@@ -106,4 +192,59 @@ public class ItemHandlerTest {
                         (e) -> System.err.println("Exception is " + e)
                         , () -> System.out.println("Completed"));
     }
+
+    @Test
+    public void searchItems(){
+
+        webTestClient.get().uri(ItemConstants.ITEM_SEARCH_FUNCTIONAL_END_POINT_V1 + "?q=app&limit=5")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(Item.class)
+                .hasSize(1)
+                .consumeWith(response -> assertEquals("Apple Watch", response.getResponseBody().get(0).getDescription()));
+    }
+
+    @Test
+    public void batchGet(){
+
+        List<ItemLookupResult> results = webTestClient.post().uri(ItemConstants.ITEM_BATCH_GET_FUNCTIONAL_END_POINT_V1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .accept(APPLICATION_NDJSON)
+                .bodyValue(Arrays.asList("ABC", "DEF"))
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemLookupResult.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertEquals(2, results.size());
+        assertEquals("ABC", results.get(0).getItem().getId());
+        assertEquals(ItemLookupResult.missing("DEF"), results.get(1));
+    }
+
+    @Test
+    public void createItemsInBulk(){
+
+        String body = "{\"description\":\"Iphone X\",\"price\":999.99}\n" +
+                "{\"id\":\"ABC\",\"description\":\"Beats HeadPhones\",\"price\":149.99}\n" +
+                "{\"description\":\"Pixel 4\",\"price\":799.99}\n";
+
+        List<ItemBatchResult> results = webTestClient.post().uri(ItemConstants.ITEM_BULK_FUNCTIONAL_END_POINT_V1)
+                .contentType(APPLICATION_NDJSON)
+                .accept(APPLICATION_NDJSON)
+                .bodyValue(body)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemBatchResult.class)
+                .getResponseBody()
+                .collectList()
+                .block();
+
+        assertEquals(2, results.stream().mapToInt(ItemBatchResult::getInserted).sum());
+        assertEquals(1, results.stream().mapToLong(result -> result.getFailures().size()).sum());
+        assertEquals(1, results.stream().flatMap(result -> result.getFailures().stream()).findFirst().get().getIndex());
+        assertEquals(Long.valueOf(6), itemReactiveRepository.count().block());
+    }
+
 }
@@ -106,6 +106,19 @@ public class ItemReactiveRepositorytest {
 
     }
 
+    @Test
+    public void updatePriceAndDescription() {
+
+        StepVerifier.create(itemReactiveRepository.updatePriceAndDescription("ABC", 129.99, "Bose QC Headphones"))
+                .expectSubscription()
+                .expectNextMatches(item -> item.getPrice() == 129.99 && item.getDescription().equals("Bose QC Headphones"))
+                .verifyComplete();
+
+        StepVerifier.create(itemReactiveRepository.updatePriceAndDescription("DEF", 129.99, "Bose QC Headphones"))
+                .expectSubscription()
+                .verifyComplete();
+    }
+
 
     @Test
     public void deleteItemById() {
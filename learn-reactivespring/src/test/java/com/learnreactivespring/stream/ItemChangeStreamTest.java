@@ -0,0 +1,201 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.domain.ItemChange;
+import com.mongodb.MongoCommandException;
+import com.mongodb.ServerAddress;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonInt32;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ItemChangeStreamTest {
+
+    private final DirectProcessor<ChangeStreamEvent<Item>> shared = DirectProcessor.create();
+
+    private final List<BsonValue> dedicatedResumedAfter = new CopyOnWriteArrayList<>();
+
+    private ItemChangeStream itemChangeStream;
+
+    private Disposable listener;
+
+    @Before
+    public void setUp() {
+
+        itemChangeStream = new ItemChangeStream();
+        itemChangeStream.mongoOperations = mock(ReactiveMongoOperations.class);
+        itemChangeStream.enabled = true;
+        itemChangeStream.historySize = 10;
+        itemChangeStream.subscriberBufferSize = 256;
+        itemChangeStream.heartbeatInterval = Duration.ofSeconds(15);
+        itemChangeStream.minBackoff = Duration.ofMillis(1);
+        itemChangeStream.maxBackoff = Duration.ofMillis(10);
+        itemChangeStream.cursorRetries = 2;
+        itemChangeStream.init();
+        when(itemChangeStream.mongoOperations.getCollectionName(Item.class)).thenReturn("item");
+    }
+
+    @After
+    public void tearDown() {
+
+        if (listener != null) {
+            listener.dispose();
+        }
+    }
+
+    @Test
+    public void dedicatedCursorResumesAfterItsLastEventWhenItFails() {
+
+        dedicatedCursor(resumeAfter -> dedicatedResumedAfter.size() == 1
+                ? Flux.concat(Flux.just(event("0a")), Flux.error(new IllegalStateException("connection reset")))
+                : Flux.just(event("0b")));
+
+        StepVerifier.create(itemChangeStream.subscribe("00", Collections.emptySet()))
+                .expectNextMatches(change -> change.getResumeToken().equals("0a"))
+                .expectNextMatches(change -> change.getResumeToken().equals("0b"))
+                .verifyComplete();
+
+        assertEquals(token("0a"), dedicatedResumedAfter.get(1));
+    }
+
+    @Test
+    public void historyLostAsksTheClientToReload() {
+
+        dedicatedCursor(resumeAfter -> Flux.error(commandFailure(286)));
+
+        StepVerifier.create(itemChangeStream.subscribe("00", Collections.emptySet()))
+                .expectNextMatches(change -> change.getId() == null && "invalidate".equals(change.getOperationType()))
+                .verifyComplete();
+
+        assertEquals(1, dedicatedResumedAfter.size());
+    }
+
+    @Test
+    public void otherCursorFailuresAreRetriedThenPassedOn() {
+
+        dedicatedCursor(resumeAfter -> Flux.error(commandFailure(13)));
+
+        StepVerifier.create(itemChangeStream.subscribe("00", Collections.emptySet()))
+                .expectErrorMatches(ex -> ex.getCause() instanceof MongoCommandException
+                        || ex instanceof MongoCommandException)
+                .verify(Duration.ofSeconds(5));
+
+        assertEquals(3, dedicatedResumedAfter.size());
+    }
+
+    @Test
+    public void dedicatedCursorHandsOverToTheSharedCursor() {
+
+        AtomicBoolean dedicatedClosed = new AtomicBoolean();
+        dedicatedCursor(resumeAfter -> Flux.just(event("0b"), event("0c"))
+                .concatWith(Flux.never())
+                .doOnCancel(() -> dedicatedClosed.set(true)));
+
+        listener = itemChangeStream.changes().subscribe();
+        shared.onNext(event("0a"));
+        shared.onNext(event("0b"));
+        shared.onNext(event("0c"));
+
+        StepVerifier.create(itemChangeStream.subscribe("00", Collections.emptySet()))
+                .expectNextMatches(change -> change.getResumeToken().equals("0b"))
+                .expectNextMatches(change -> change.getResumeToken().equals("0c"))
+                .then(() -> assertTrue(dedicatedClosed.get()))
+                .then(() -> shared.onNext(event("0d")))
+                .expectNextMatches(change -> change.getResumeToken().equals("0d"))
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void slowSubscriberIsDisconnectedWithAnError() {
+
+        itemChangeStream.subscriberBufferSize = 2;
+        dedicatedCursor(resumeAfter -> Flux.range(10, 5).map(i -> event(Integer.toHexString(i))));
+
+        StepVerifier.create(itemChangeStream.subscribe("00", Collections.emptySet()), 0)
+                .expectError(ResponseStatusException.class)
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void changesStartFromNow() {
+
+        when(itemChangeStream.mongoOperations.changeStream(eq("item"), any(ChangeStreamOptions.class), eq(Item.class)))
+                .thenReturn(shared);
+
+        StepVerifier.create(itemChangeStream.changes().map(ItemChange::getResumeToken))
+                .then(() -> shared.onNext(event("0a")))
+                .expectNext("0a")
+                .thenCancel()
+                .verify(Duration.ofSeconds(5));
+
+        assertFalse(shared.hasDownstreams());
+    }
+
+    /**
+     * Cursors opened with a resume token get {@code dedicated}, the one
+     * opened from now is the shared one.
+     */
+    private void dedicatedCursor(Function<BsonValue, Flux<ChangeStreamEvent<Item>>> dedicated) {
+
+        when(itemChangeStream.mongoOperations.changeStream(eq("item"), any(ChangeStreamOptions.class), eq(Item.class)))
+                .thenAnswer(invocation -> {
+                    ChangeStreamOptions options = invocation.getArgument(1);
+                    if (!options.getResumeToken().isPresent()) {
+                        return shared;
+                    }
+                    dedicatedResumedAfter.add(options.getResumeToken().get());
+                    return dedicated.apply(options.getResumeToken().get());
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ChangeStreamEvent<Item> event(String resumeToken) {
+
+        ChangeStreamEvent<Item> event = mock(ChangeStreamEvent.class);
+        when(event.getResumeToken()).thenReturn(token(resumeToken));
+        when(event.getOperationType()).thenReturn(OperationType.INSERT);
+        return event;
+    }
+
+    private static BsonDocument token(String data) {
+
+        return new BsonDocument("_data", new BsonString(data));
+    }
+
+    private static MongoCommandException commandFailure(int code) {
+
+        return new MongoCommandException(new BsonDocument("ok", new BsonInt32(0))
+                .append("code", new BsonInt32(code))
+                .append("errmsg", new BsonString("change stream failure")),
+                new ServerAddress());
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.learnreactivespring.sync;
+
+import org.bson.Document;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.junit4.SpringRunner;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@DataMongoTest
+@RunWith(SpringRunner.class)
+@DirtiesContext
+public class ItemSequenceTest {
+
+    private static final int BLOCK_SIZE = 10;
+
+    @Autowired
+    ReactiveMongoOperations mongoOperations;
+
+    private ItemSequence node1;
+
+    private ItemSequence node2;
+
+    @Before
+    public void setUp() {
+
+        mongoOperations.dropCollection("counters").block();
+        node1 = node(Duration.ofSeconds(30));
+        node2 = node(Duration.ofSeconds(30));
+    }
+
+    @Test
+    public void stableStopsBeforeAnotherNodesPendingWrite() {
+
+        long first = node1.reserve(1).block();
+        node2.withSequence(2, lastModified -> Mono.just(lastModified)).block();
+
+        assertEquals(first - 1, node2.stable().block().longValue());
+
+        node1.release(first);
+        node1.stable().block();
+        node1.refreshLease().block();
+        node2.refreshLease().block();
+        assertEquals(2 * BLOCK_SIZE, node2.stable().block().longValue());
+    }
+
+    @Test
+    public void eachNodeReservesFromItsOwnBlock() {
+
+        long first = node1.reserve(1).block();
+        long second = node1.reserve(2).block();
+        long other = node2.reserve(1).block();
+
+        assertEquals(first + 1, second);
+        assertEquals(first + BLOCK_SIZE, other);
+        assertEquals(2 * BLOCK_SIZE, mongoOperations.findById("items", Document.class, "counters").block()
+                .get("value", Number.class).longValue());
+    }
+
+    @Test
+    public void concurrentReservationsNeverOverlap() {
+
+        List<Long> firsts = Flux.range(0, 20)
+                .flatMap(i -> (i % 2 == 0 ? node1 : node2).withSequence(3, Mono::just))
+                .sort()
+                .collectList()
+                .block();
+
+        assertEquals(20, firsts.size());
+        for (int i = 1; i < firsts.size(); i++) {
+            assertTrue(firsts.get(i - 1) + 3 <= firsts.get(i));
+        }
+    }
+
+    @Test
+    public void abandonedReservationIsIgnoredAfterTheWriteTimeout() throws InterruptedException {
+
+        long first = node1.reserve(1).block();
+        ItemSequence impatient = node(Duration.ofMillis(1));
+        Thread.sleep(20);
+
+        assertEquals(first - 1, node2.stable().block().longValue());
+        assertEquals(BLOCK_SIZE, impatient.stable().block().longValue());
+        assertEquals(BLOCK_SIZE, node2.stable().block().longValue());
+    }
+
+    private ItemSequence node(Duration writeTimeout) {
+
+        ItemSequence itemSequence = new ItemSequence();
+        itemSequence.mongoOperations = mongoOperations;
+        itemSequence.writeTimeout = writeTimeout;
+        itemSequence.blockSize = BLOCK_SIZE;
+        itemSequence.leaseRefresh = Duration.ofSeconds(1);
+        return itemSequence;
+    }
+
+}